@@ -0,0 +1,170 @@
+package com.argosware.blog.lwl;
+
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.*;
+
+/**
+ * Verifies that {@link Queue} operations do not allocate once warmed up.
+ *
+ * <p>Bytes allocated by the JMH thread and by the counterpart thread are measured with
+ * {@link com.sun.management.ThreadMXBean} and reported per operation as
+ * {@link AuxCounters}. A measurement iteration fails if any of them is above zero. Run
+ * with {@code -foe true} to abort the whole run on the first failure.</p>
+ *
+ * <p>Nothing is subtracted for the harness: the {@code NONE} operation measures what JMH
+ * allocates on the JMH thread between iteration setup and tear down, which is zero after
+ * the first warmup iteration. Per-iteration rows are the bytes per operation of that
+ * iteration. JMH sums {@link AuxCounters.Type#EVENTS} over all iterations and forks, so
+ * the final row is not a mean, but since any allocation fails the run it is zero
+ * whenever the run completes.</p>
+ */
+@Threads(1)
+@Fork(value = 1)
+@Measurement(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AllocationFree {
+    private static final com.sun.management.ThreadMXBean MX
+            = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    public enum Operation {
+        /**
+         * Nothing is called and there is no counterpart: measures what the JMH harness
+         * allocates on its own between iteration setup and tear down.
+         */
+        NONE,
+        /** JMH thread calls {@link Queue#offer(int)}, counterpart calls {@link Queue#take()} */
+        OFFER,
+        /** JMH thread calls {@link Queue#put(int)}, counterpart calls {@link Queue#take()} */
+        PUT,
+        /** JMH thread calls {@link Queue#poll(int)}, counterpart calls {@link Queue#put(int)} */
+        POLL,
+        /** JMH thread calls {@link Queue#take()}, counterpart calls {@link Queue#put(int)} */
+        TAKE,
+        /**
+         * JMH thread calls {@link Queue#close()} and {@link Queue#put(int)} on the
+         * closed queue, catching {@link Queue.ClosedException}. No counterpart.
+         */
+        CLOSE
+    }
+
+    private static final class Counterpart implements Runnable {
+        private final Queue queue;
+        private final boolean produce;
+        private volatile long ops, allocatedBytes;
+
+        private Counterpart(Queue queue, boolean produce) {
+            this.queue = queue;
+            this.produce = produce;
+        }
+
+        @Override public void run() {
+            long id = Thread.currentThread().threadId(), start = MX.getThreadAllocatedBytes(id);
+            long ops = 0;
+            try {
+                if (produce) {
+                    for (int i = 0; true; ++i, ++ops) queue.put(i);
+                } else {
+                    for (; true; ++ops) queue.take();
+                }
+            } catch (Queue.ClosedException ignored) {
+            } finally {
+                allocatedBytes = MX.getThreadAllocatedBytes(id)-start;
+                this.ops = ops;
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Config {
+        @Param({"LOCK", "SPIN", "SPSC", "PADDED_SPIN", "PADDED_SPSC", "MPMC"})
+        public LockingWithoutLock.Implementation implementation;
+        @Param({"1", "16"}) public int capacity;
+        @Param public Operation operation;
+    }
+
+    /**
+     * Holds all mutable state: JMH creates distinct instances of a state that is injected
+     * both into a fixture method and into the benchmark method.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Fixture {
+        public double jmhBytesPerOp, counterpartBytesPerOp;
+
+        /** A single thread: per-thread state created on first use, like the waiter of
+         *  {@link MPMCQueue}, is then allocated during warmup */
+        private final ExecutorService executor
+                = Executors.newSingleThreadExecutor(BenchmarkSupport.daemonThreads("alloc-counterpart-"));
+        private @MonotonicNonNull Config config;
+        private @MonotonicNonNull Operation operation;
+        private @MonotonicNonNull Queue queue;
+        private @Nullable Counterpart counterpart;
+        private @Nullable Future<?> counterpartFuture;
+        private long ops, startBytes;
+        private int counter;
+
+        @Setup(Level.Iteration) public void setup(Config config) {
+            this.config = config;
+            operation = config.operation;
+            queue = config.implementation.create(config.capacity);
+            counterpart = switch (operation) {
+                case OFFER, PUT -> new Counterpart(queue, false);
+                case POLL, TAKE -> new Counterpart(queue, true);
+                case NONE, CLOSE -> null;
+            };
+            counterpartFuture = counterpart == null ? null : executor.submit(counterpart);
+            ops = 0;
+            startBytes = MX.getCurrentThreadAllocatedBytes();
+        }
+
+        @TearDown(Level.Iteration) public void tearDown(IterationParams iteration) throws Exception {
+            long jmhBytes = MX.getCurrentThreadAllocatedBytes()-startBytes;
+            queue.close();
+            long counterpartBytes = 0, counterpartOps = 0;
+            if (counterpartFuture != null && counterpart != null) {
+                counterpartFuture.get();
+                counterpartBytes = counterpart.allocatedBytes;
+                counterpartOps = counterpart.ops;
+            }
+            jmhBytesPerOp = ops == 0 ? 0 : jmhBytes/(double)ops;
+            counterpartBytesPerOp = counterpartOps == 0 ? 0 : counterpartBytes/(double)counterpartOps;
+            if (iteration.getType() == IterationType.MEASUREMENT
+                    && (jmhBytesPerOp > 0 || counterpartBytesPerOp > 0)) {
+                throw new IllegalStateException(config.implementation+"."+operation+" allocated "
+                        +jmhBytes+" bytes in "+ops+" JMH-thread ops and "
+                        +counterpartBytes+" bytes in "+counterpartOps+" counterpart ops");
+            }
+        }
+
+        @TearDown(Level.Trial) public void trialTearDown() {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark public int op(Fixture f) {
+        ++f.ops;
+        try {
+            return switch (f.operation) {
+                case NONE  -> 0;
+                case OFFER -> f.queue.offer(f.counter++) ? 1 : 0;
+                case PUT   -> { f.queue.put(f.counter++); yield 1; }
+                case POLL  -> f.queue.poll(0);
+                case TAKE  -> f.queue.take();
+                case CLOSE -> {
+                    f.queue.close();
+                    f.queue.put(f.counter++);
+                    yield 1;
+                }
+            };
+        } catch (Queue.ClosedException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.argosware.blog.lwl;
+
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.*;
+
+/**
+ * Producer throughput when the consumer side uses the blocking {@link Queue#take()},
+ * {@link AsyncQueue#takeAsync()} or a {@link QueuePublisher}.
+ *
+ * <p>{@code TAKE_ASYNC} joins each future before requesting the next one, thus it measures
+ * the overhead of the future and executor machinery on top of a blocking hand-off, not
+ * non-blocking delivery.</p>
+ */
+@State(Scope.Thread)
+@Threads(1)
+@Fork(value = 3)
+@Measurement(iterations = 10, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AsyncConsumption {
+    public enum Consumer {
+        TAKE,
+        TAKE_ASYNC,
+        PUBLISHER
+    }
+
+    @Param({"LOCK", "SPIN", "SPSC", "PADDED_SPIN", "PADDED_SPSC", "MPMC"})
+    public LockingWithoutLock.Implementation implementation;
+    @Param({"16", "256"}) public int capacity;
+    @Param public Consumer consumer;
+    @Param({"64"}) public int maxBatch;
+
+    private final ExecutorService executor = BenchmarkSupport.newDaemonPool("async-consumer-");
+    private @MonotonicNonNull Queue queue;
+    private @MonotonicNonNull Future<?> counterpartFuture;
+    private @Nullable BlackholeSubscriber subscriber;
+    private int counter;
+
+    @Setup(Level.Iteration) public void setup(Blackhole bh) {
+        queue = implementation.create(capacity);
+        counterpartFuture = null;
+        subscriber = null;
+        switch (consumer) {
+            case TAKE -> counterpartFuture = executor.submit(() -> {
+                try {
+                    while (true) bh.consume(queue.take());
+                } catch (Queue.ClosedException ignored) { }
+            });
+            case TAKE_ASYNC -> {
+                var async = new AsyncQueue(queue, executor);
+                counterpartFuture = executor.submit(() -> {
+                    try {
+                        while (true) bh.consume(async.takeAsync().join().intValue());
+                    } catch (CompletionException ignored) { }
+                });
+            }
+            case PUBLISHER -> new QueuePublisher(queue, executor, maxBatch)
+                    .subscribe(subscriber = new BlackholeSubscriber(bh, maxBatch));
+        }
+    }
+
+    @TearDown(Level.Iteration) public void tearDown() throws Exception {
+        queue.close();
+        if (counterpartFuture != null)
+            counterpartFuture.get();
+        if (subscriber != null)
+            subscriber.done.get(); // waits for the pump, rethrows onError()
+    }
+
+    @TearDown(Level.Trial) public void trialTearDown() {
+        executor.shutdownNow();
+    }
+
+    private static final class BlackholeSubscriber implements Flow.Subscriber<QueuePublisher.IntBatch> {
+        private final Blackhole bh;
+        private final int window;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private Flow.@MonotonicNonNull Subscription subscription;
+
+        private BlackholeSubscriber(Blackhole bh, int window) {
+            this.bh = bh;
+            this.window = window;
+        }
+
+        @Override public void onSubscribe(Flow.Subscription subscription) {
+            (this.subscription = subscription).request(window);
+        }
+
+        @Override public void onNext(QueuePublisher.IntBatch batch) {
+            int n = batch.size();
+            for (int i = 0; i < n; i++)
+                bh.consume(batch.get(i));
+            subscription.request(n);
+        }
+
+        @Override public void onError(Throwable throwable) { done.completeExceptionally(throwable); }
+        @Override public void onComplete() { done.complete(null); }
+    }
+
+    @Benchmark public void put() {
+        queue.put(counter++);
+    }
+}
@@ -0,0 +1,46 @@
+package com.argosware.blog.lwl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking consumer side of a {@link Queue}.
+ *
+ * <p>{@link #takeAsync()} completes immediately if an item is already queued. Else a
+ * blocking {@link Queue#take()} is issued from {@code executor}. Futures complete in the
+ * order they were requested and complete exceptionally with {@link Queue.ClosedException}
+ * once the queue is closed. Like the queues themselves, this supports a single consumer:
+ * {@link #takeAsync()} must not be called concurrently.</p>
+ *
+ * <p>Every {@link #takeAsync()} allocates a {@link CompletableFuture} and may box the item
+ * and allocate a task for {@code executor}, use {@link QueuePublisher} when per-item
+ * allocation matters. Cancelling a returned future does not stop the {@link Queue#take()}
+ * issued for it: the item it removes from the queue is lost.</p>
+ */
+public class AsyncQueue {
+    private final Queue queue;
+    private final Executor executor;
+    private final int[] one = new int[1];
+    private CompletableFuture<Integer> last = CompletableFuture.completedFuture(0);
+
+    public AsyncQueue(Queue queue, Executor executor) {
+        this.queue = queue;
+        this.executor = executor;
+    }
+
+    public Queue queue() { return queue; }
+
+    public CompletableFuture<Integer> takeAsync() {
+        if (last.isDone()) {
+            try {
+                if (queue.drain(one, 0, 1) == 1)
+                    return last = CompletableFuture.completedFuture(one[0]);
+            } catch (Queue.ClosedException e) {
+                return last = CompletableFuture.failedFuture(e);
+            }
+            return last = CompletableFuture.supplyAsync(queue::take, executor);
+        }
+        // a take() is in-flight, chain after it to preserve ordering
+        return last = last.handleAsync((ignoredValue, ignoredErr) -> queue.take(), executor);
+    }
+}
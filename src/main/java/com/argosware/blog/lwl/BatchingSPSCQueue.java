@@ -0,0 +1,130 @@
+package com.argosware.blog.lwl;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link PaddedSPSCQueue} whose producer writes into free slots of the ring without
+ * taking the lock and publishes them (growing {@code size} and waking the consumer once)
+ * only when {@code batch} items are pending, when {@link #flush()} is called or when a
+ * {@link #put(int)}/{@link #offer(int)} finds the oldest pending item older than
+ * {@code maxDelayNanos}.
+ *
+ * <p>The time bound is only checked by the producer, thus an idle producer must call
+ * {@link #flush()}. Items not yet published when the queue is closed are dropped and a
+ * producer only observes {@link ClosedException} when it publishes.</p>
+ */
+public class BatchingSPSCQueue extends BatchingSPSCQueueL5 {
+    public BatchingSPSCQueue(int capacity, int batch, long maxDelayNanos) {
+        super(capacity, batch, maxDelayNanos);
+    }
+
+    /** Publishes pending items and refreshes the producer view of free slots. */
+    private void publish() {
+        Thread unpark = null;
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            if (closed) {
+                pending = 0;
+                throw ClosedException.INSTANCE;
+            }
+            if (pending > 0) {
+                size += pending;
+                pending = 0;
+                unpark = consumer;
+                consumer = null;
+            }
+            free = capacity-size;
+            writeIdx = (readIdx+size)%capacity;
+        } finally {
+            LOCK.setRelease(this, 0);
+            LockSupport.unpark(unpark);
+        }
+    }
+
+    private void write(int value) {
+        int writeIdx = this.writeIdx;
+        data[DATA_OFF+writeIdx] = value;
+        this.writeIdx = (writeIdx+1)%capacity;
+        --free;
+        if (++pending >= batch) {
+            publish();
+        } else if (maxDelayNanos > 0) {
+            long now = System.nanoTime();
+            if (pending == 1)
+                firstPendingNanos = now;
+            else if (now-firstPendingNanos >= maxDelayNanos)
+                publish();
+        }
+    }
+
+    @Override public void flush() throws ClosedException {
+        if (pending > 0)
+            publish();
+    }
+
+    @Override public boolean offer(int value) throws ClosedException {
+        if (free == 0) {
+            publish();
+            if (free == 0)
+                return false;
+        }
+        write(value);
+        return true;
+    }
+
+    @Override public void put(int value) throws ClosedException {
+        if (free == 0) {
+            publish();
+            if (free == 0) {
+                super.put(value); // parks until there is space
+                return; // free stays 0: writeIdx is refreshed on next put
+            }
+        }
+        write(value);
+    }
+
+    @Override public void reset() {
+        super.reset();
+        writeIdx = free = pending = 0;
+    }
+}
+
+abstract class BatchingSPSCQueueL4 extends PaddedSPSCQueue {
+    protected final int batch;
+    protected final long maxDelayNanos;
+    protected int writeIdx, free, pending;
+    protected long firstPendingNanos;
+
+    BatchingSPSCQueueL4(int capacity, int batch, long maxDelayNanos) {
+        super(capacity);
+        if (batch < 1)
+            throw new IllegalArgumentException("batch < 1");
+        this.batch = batch;
+        this.maxDelayNanos = maxDelayNanos;
+    }
+}
+@SuppressWarnings("unused") abstract class BatchingSPSCQueueL5 extends BatchingSPSCQueueL4 {
+    private byte b00_0, b00_1, b00_2, b00_3, b00_4, b00_5, b00_6, b00_7; // 8  bytes
+    private byte b01_0, b01_1, b01_2, b01_3, b01_4, b01_5, b01_6, b01_7; // 16 bytes
+    private byte b02_0, b02_1, b02_2, b02_3, b02_4, b02_5, b02_6, b02_7; // 24 bytes
+    private byte b03_0, b03_1, b03_2, b03_3, b03_4, b03_5, b03_6, b03_7; // 32 bytes
+    private byte b04_0, b04_1, b04_2, b04_3, b04_4, b04_5, b04_6, b04_7; // 48 bytes
+    private byte b05_0, b05_1, b05_2, b05_3, b05_4, b05_5, b05_6, b05_7; // 64 bytes
+    private byte b06_0, b06_1, b06_2, b06_3, b06_4, b06_5, b06_6, b06_7; // 72 bytes
+    private byte b07_0, b07_1, b07_2, b07_3, b07_4, b07_5, b07_6, b07_7; // 80 bytes
+    private byte b08_0, b08_1, b08_2, b08_3, b08_4, b08_5, b08_6, b08_7; // 88 bytes
+    private byte b09_0, b09_1, b09_2, b09_3, b09_4, b09_5, b09_6, b09_7; // 96 bytes
+    private byte b10_0, b10_1, b10_2, b10_3, b10_4, b10_5, b10_6, b10_7; // 104 bytes
+    private byte b11_0, b11_1, b11_2, b11_3, b11_4, b11_5, b11_6, b11_7; // 112 bytes
+    private byte b12_0, b12_1, b12_2, b12_3, b12_4, b12_5, b12_6, b12_7; // 120 bytes
+    private byte b13_0, b13_1, b13_2, b13_3, b13_4, b13_5, b13_6, b13_7; // 128 bytes
+
+    BatchingSPSCQueueL5(int capacity, int batch, long maxDelayNanos) {
+        super(capacity, batch, maxDelayNanos);
+    }
+}
@@ -0,0 +1,49 @@
+package com.argosware.blog.lwl;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Helpers shared by the benchmark classes. */
+final class BenchmarkSupport {
+    private BenchmarkSupport() {}
+
+    /**
+     * JMH sums {@link AuxCounters.Type#EVENTS} over all measurement iterations of all
+     * forks. Percentiles do not add up, thus benchmarks reporting them as EVENTS keep one
+     * histogram for the single measurement iteration of a single fork.
+     *
+     * @throws IllegalArgumentException if the run has more than one fork or more than one
+     *         measurement iteration.
+     */
+    static void requireSingleMeasurement(BenchmarkParams params) {
+        if (params.getForks() > 1 || params.getMeasurement().getCount() != 1) {
+            throw new IllegalArgumentException(params.getBenchmark()+" reports percentiles, "
+                    +"which JMH would sum: run it with -f 1 -i 1 and a longer -r instead of "
+                    +"-f "+params.getForks()+" -i "+params.getMeasurement().getCount());
+        }
+    }
+
+    /**
+     * Daemon threads named {@code namePrefix} plus a sequence number, for counterparts of
+     * the JMH thread. Daemon threads do not keep a forked JVM alive if a counterpart is
+     * still blocked when the trial ends.
+     */
+    static ThreadFactory daemonThreads(String namePrefix) {
+        var nextThreadId = new AtomicInteger();
+        return r -> {
+            var thread = new Thread(r, namePrefix+nextThreadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /** Cached pool of {@link #daemonThreads(String)}. */
+    static ExecutorService newDaemonPool(String namePrefix) {
+        return Executors.newCachedThreadPool(daemonThreads(namePrefix));
+    }
+}
@@ -0,0 +1,73 @@
+package com.argosware.blog.lwl;
+
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the first transfers through a freshly created queue.
+ *
+ * <p>Every fork measures a single cold invocation: no warmup, so the queue code runs in
+ * the interpreter/C1 and the queue memory is fresh. Transfers are a {@link Queue#put(int)}
+ * followed by a {@link Queue#take()} on the JMH thread, thus this measures code and memory
+ * warmness, not cross-thread hand-off.</p>
+ */
+@State(Scope.Thread)
+@Threads(1)
+@Fork(value = 20)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ColdStart {
+    /** All but {@code RENDEZVOUS}: a put() with no other thread to take() never returns */
+    @Param({"LOCK", "SPIN", "SPSC", "PADDED_SPIN", "PADDED_SPSC", "MPMC"})
+    public LockingWithoutLock.Implementation implementation;
+    @Param({"16", "256"}) public int capacity;
+    @Param({"1", "64"}) public int transfers;
+    /** {@code 0} skips {@link Queue#prewarm(int)} */
+    @Param({"0", "10000"}) public int prewarmOps;
+
+    /**
+     * Queue created (and maybe pre-warmed) before the measured call. Only
+     * {@link #transferOnly(Created)} injects it, so that {@link #createAndTransfer()} runs
+     * with the queue class not yet loaded nor initialized.
+     */
+    @State(Scope.Thread)
+    public static class Created {
+        private @MonotonicNonNull Queue queue;
+
+        @Setup(Level.Iteration) public void setup(ColdStart params) {
+            queue = params.implementation.create(params.capacity);
+            queue.prewarm(params.prewarmOps);
+        }
+
+        @TearDown(Level.Iteration) public void tearDown() {
+            queue.close();
+        }
+    }
+
+    private static int transfer(Queue queue, int transfers) {
+        int sum = 0;
+        for (int i = 0; i < transfers; i++) {
+            queue.put(i);
+            sum += queue.take();
+        }
+        return sum;
+    }
+
+    /** Construction, optional {@link Queue#prewarm(int)} and the first transfers. */
+    @Benchmark public int createAndTransfer() {
+        Queue queue = implementation.create(capacity);
+        queue.prewarm(prewarmOps);
+        int sum = transfer(queue, transfers);
+        queue.close();
+        return sum;
+    }
+
+    /** First transfers on a queue created (and maybe pre-warmed) off the measured path. */
+    @Benchmark public int transferOnly(Created created) {
+        return transfer(created.queue, transfers);
+    }
+}
@@ -0,0 +1,297 @@
+package com.argosware.blog.lwl;
+
+import com.argosware.blog.lwl.Queue.ClosedException;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.Thread.currentThread;
+
+/**
+ * Latest-value-per-key queue for one producer and one consumer.
+ *
+ * <p>Pending values are kept in an open-addressing (linear probing) {@code int -> int}
+ * map and their keys in a ring, in the order they first became dirty. A
+ * {@link #put(int, int)} for a key that is already pending overwrites its value in
+ * place, so a slow consumer only sees the newest value of each key. {@code capacity}
+ * bounds the number of distinct pending keys, {@link #put(int, int)} blocks only when
+ * that many keys are pending and the key is not one of them. Nothing is allocated or
+ * boxed after construction.</p>
+ *
+ * <p>Like {@link SPSCQueue}, state is guarded by a spin lock and a single blocked producer
+ * and consumer are parked.</p>
+ */
+class ConflatingQueue {
+    private static final VarHandle LOCK;
+    private static final int FULL = 0, CONFLATED = 1, APPENDED = 2;
+
+    static {
+        try {
+            LOCK = MethodHandles.lookup().findVarHandle(ConflatingQueue.class, "plainLock", int.class);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @SuppressWarnings("unused") private int plainLock;
+    /** Dirty keys, in the order they were first updated */
+    private final int[] ring;
+    /** Map of pending key to latest value, twice as large as {@code ring} */
+    private final int[] keys, values;
+    private final boolean[] used;
+    private final int mask, shift;
+    private final boolean events;
+    private Thread consumer, producer;
+    private int readIdx, size;
+    private boolean closed;
+
+    public ConflatingQueue(int capacity) { this(capacity, false); }
+
+    public ConflatingQueue(int capacity, boolean events) {
+        if (capacity < 1 || capacity > 1 << 29)
+            throw new IllegalArgumentException("capacity not in [1, 2^29]");
+        int tableSize = capacity == 1 ? 2 : Integer.highestOneBit(capacity-1) << 2;
+        this.ring = new int[capacity];
+        this.keys = new int[tableSize];
+        this.values = new int[tableSize];
+        this.used = new boolean[tableSize];
+        this.mask = tableSize-1;
+        this.shift = 32-Integer.numberOfTrailingZeros(tableSize);
+        this.events = events;
+    }
+
+    /* --- --- --- map, only accessed while holding the lock --- --- --- */
+
+    private int home(int key) { return (key * 0x9E3779B9) >>> shift; }
+
+    /** Index of {@code key} in the map or, if absent, {@code ~index} of a free slot. */
+    private int find(int key) {
+        int i = home(key);
+        for (; used[i]; i = (i+1) & mask) {
+            if (keys[i] == key)
+                return i;
+        }
+        return ~i;
+    }
+
+    /** Backward-shift deletion: keeps probe sequences free of holes without tombstones. */
+    private void remove(int i) {
+        used[i] = false;
+        for (int j = (i+1) & mask; used[j]; j = (j+1) & mask) {
+            if (((j-home(keys[j])) & mask) >= ((j-i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                used[i] = true;
+                used[j] = false;
+                i = j;
+            }
+        }
+    }
+
+    private int write(int key, int value) {
+        int i = find(key);
+        if (i >= 0) {
+            values[i] = value;
+            return CONFLATED;
+        } else if (size >= ring.length) {
+            return FULL;
+        }
+        i = ~i;
+        keys[i] = key;
+        values[i] = value;
+        used[i] = true;
+        ring[(readIdx+size)%ring.length] = key;
+        ++size;
+        return APPENDED;
+    }
+
+    private int read(int[] dstKeys, int[] dstValues, int offset, int max) {
+        int n = Math.min(size, max), readIdx = this.readIdx;
+        for (int o = offset, end = offset+n; o < end; o++) {
+            int key = ring[readIdx], i = find(key);
+            dstKeys[o] = key;
+            dstValues[o] = values[i];
+            remove(i);
+            readIdx = (readIdx+1)%ring.length;
+        }
+        this.readIdx = readIdx;
+        size -= n;
+        return n;
+    }
+
+    /* --- --- --- queue operations --- --- --- */
+
+    public void close() {
+        Thread consumer = null, producer = null;
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            closed = true;
+            consumer = this.consumer;
+            producer = this.producer;
+            this.consumer = null;
+            this.producer = null;
+        } finally {
+            LOCK.setRelease(this, 0);
+            LockSupport.unpark(consumer);
+            LockSupport.unpark(producer);
+            if (events && (consumer != null || producer != null))
+                QueueEvents.close(getClass(), (consumer == null ? 0 : 1) + (producer == null ? 0 : 1));
+        }
+    }
+
+    /**
+     * Reopens a closed queue, discarding pending values.
+     *
+     * @throws IllegalStateException if the queue is not closed.
+     */
+    public void reset() {
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            if (!closed)
+                throw new IllegalStateException("reset() on open queue");
+            for (; size > 0; --size, readIdx = (readIdx+1)%ring.length)
+                remove(find(ring[readIdx]));
+            readIdx = 0;
+            consumer = producer = null;
+            closed = false;
+        } finally { LOCK.setRelease(this, 0); }
+    }
+
+    /**
+     * Sets the pending value of {@code key}, if {@code capacity} distinct keys are
+     * already pending and {@code key} is not one of them, returns false.
+     */
+    public boolean offer(int key, int value) throws ClosedException {
+        Thread unpark = null;
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            if (closed)
+                throw ClosedException.INSTANCE;
+            int result = write(key, value);
+            if (result == APPENDED) {
+                unpark = consumer;
+                consumer = null;
+            }
+            return result != FULL;
+        } finally {
+            LOCK.setRelease(this, 0);
+            LockSupport.unpark(unpark);
+        }
+    }
+
+    /** Like {@link #offer(int, int)}, but waits for the consumer instead of failing. */
+    public void put(int key, int value) throws ClosedException {
+        while (true) {
+            Thread unpark = null;
+            if (!events) {
+                while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                    Thread.onSpinWait();
+            } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+                QueueEvents.spinLock(LOCK, this);
+            }
+            boolean locked = true;
+            try {
+                if (closed)
+                    throw ClosedException.INSTANCE;
+                int result = write(key, value);
+                if (result == FULL) {
+                    if (producer == null) {
+                        producer = currentThread();
+                        LOCK.setRelease(this, 0);
+                        locked = false;
+                        QueueEvents.park(this, QueueEvents.PRODUCER, events);
+                    }
+                } else {
+                    if (result == APPENDED) {
+                        unpark = consumer;
+                        consumer = null;
+                    }
+                    break;
+                }
+            } finally {
+                if (locked)
+                    LOCK.setRelease(this, 0);
+                LockSupport.unpark(unpark);
+            }
+        }
+    }
+
+    /**
+     * Non-blocking removal of up to {@code max} keys and their latest values into
+     * {@code dstKeys} and {@code dstValues}, starting at {@code offset}.
+     *
+     * @return number of key-value pairs written, {@code 0} if no key is pending.
+     */
+    public int drain(int[] dstKeys, int[] dstValues, int offset, int max) throws ClosedException {
+        Thread unpark = null;
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            if (closed)
+                throw ClosedException.INSTANCE;
+            int n = read(dstKeys, dstValues, offset, max);
+            if (n > 0) {
+                unpark = producer;
+                producer = null;
+            }
+            return n;
+        } finally {
+            LOCK.setRelease(this, 0);
+            LockSupport.unpark(unpark);
+        }
+    }
+
+    /** Like {@link #drain(int[], int[], int, int)}, but waits for at least one key. */
+    public int take(int[] dstKeys, int[] dstValues, int offset, int max) throws ClosedException {
+        while (true) {
+            Thread unpark = null;
+            if (!events) {
+                while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                    Thread.onSpinWait();
+            } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+                QueueEvents.spinLock(LOCK, this);
+            }
+            boolean locked = true;
+            try {
+                if (closed) {
+                    throw ClosedException.INSTANCE;
+                } else if (size == 0) {
+                    if (consumer == null) {
+                        consumer = currentThread();
+                        LOCK.setRelease(this, 0);
+                        locked = false;
+                        QueueEvents.park(this, QueueEvents.CONSUMER, events);
+                    }
+                } else {
+                    unpark = producer;
+                    producer = null;
+                    return read(dstKeys, dstValues, offset, max);
+                }
+            } finally {
+                if (locked)
+                    LOCK.setRelease(this, 0);
+                LockSupport.unpark(unpark);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.argosware.blog.lwl;
+
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.*;
+
+/**
+ * Updates to {@code keys} random keys published by a producer thread and processed by the
+ * JMH thread, which spends {@code consumerSlowdown} times the producer work on each
+ * delivered item.
+ *
+ * <p>The score is the rate of items delivered to the consumer. {@code caughtUp} is the
+ * rate of updates the consumer has caught up with: with {@link ConflatingQueue} a
+ * delivered value covers every update of its key since the previous delivery, with
+ * {@link PaddedSPSCQueue} every item (only its key) is one update. The conflating queue is
+ * sized to hold every key, so its producer only blocks while the consumer holds the
+ * lock.</p>
+ */
+@Threads(1)
+@Fork(value = 3)
+@Measurement(iterations = 10, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Conflation {
+    private static final int MAX_BATCH = 64;
+
+    public enum Kind { CONFLATING, PADDED_SPSC }
+
+    @State(Scope.Thread)
+    public static class Config {
+        @Param public Kind queue;
+        @Param({"16", "1024", "65536", "1048576"}) public int keys;
+        @Param({"1", "4", "16"}) public int consumerSlowdown;
+        /** {@link Blackhole#consumeCPU(long)} tokens spent by the producer per update */
+        @Param({"16"}) public int producerTokens;
+        @Param({"1024"}) public int spscCapacity;
+    }
+
+    private static final class Producer implements Runnable {
+        private final @Nullable ConflatingQueue conflating;
+        private final @Nullable Queue spsc;
+        private final long tokens;
+        /** Updates published so far per key, the value put for a conflating queue */
+        private final int[] updates;
+        private long seed = 0x5eed;
+
+        private Producer(@Nullable ConflatingQueue conflating, @Nullable Queue spsc,
+                         long tokens, int keys) {
+            this.conflating = conflating;
+            this.spsc = spsc;
+            this.tokens = tokens;
+            this.updates = new int[keys];
+        }
+
+        private int nextKey() {
+            seed = seed*6364136223846793005L + 1442695040888963407L;
+            return (int)((seed >>> 33) % updates.length);
+        }
+
+        @Override public void run() {
+            try {
+                while (true) {
+                    Blackhole.consumeCPU(tokens);
+                    int key = nextKey(), value = ++updates[key];
+                    if (conflating != null)
+                        conflating.put(key, value);
+                    else
+                        spsc.put(key);
+                }
+            } catch (Queue.ClosedException ignored) { }
+        }
+    }
+
+    /** All mutable state, see {@link AllocationFree.Fixture} */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Fixture {
+        public long caughtUp;
+
+        private final ExecutorService executor = BenchmarkSupport.newDaemonPool("conflation-producer-");
+        private final int[] batchKeys = new int[MAX_BATCH], batchValues = new int[MAX_BATCH];
+        private @Nullable ConflatingQueue conflating;
+        private @Nullable Queue spsc;
+        private @MonotonicNonNull Future<?> producerFuture;
+        /** Last value delivered per key, only used with a conflating queue */
+        private int @MonotonicNonNull [] delivered;
+        private long consumerTokens;
+        private int batchIdx, batchSize;
+
+        @Setup(Level.Iteration) public void setup(Config c) {
+            conflating = c.queue == Kind.CONFLATING ? new ConflatingQueue(c.keys) : null;
+            spsc = c.queue == Kind.PADDED_SPSC ? new PaddedSPSCQueue(c.spscCapacity) : null;
+            delivered = new int[c.keys];
+            consumerTokens = (long)c.producerTokens*c.consumerSlowdown;
+            batchIdx = batchSize = 0;
+            producerFuture = executor.submit(new Producer(conflating, spsc, c.producerTokens, c.keys));
+        }
+
+        @TearDown(Level.Iteration) public void tearDown() throws Exception {
+            if (conflating != null)
+                conflating.close();
+            if (spsc != null)
+                spsc.close();
+            producerFuture.get();
+        }
+
+        @TearDown(Level.Trial) public void trialTearDown() {
+            executor.shutdownNow();
+        }
+
+        /** Takes the next batch once the current one has been processed. */
+        private void refill() {
+            if (conflating != null) {
+                batchSize = conflating.take(batchKeys, batchValues, 0, MAX_BATCH);
+            } else {
+                batchKeys[0] = spsc.take();
+                batchSize = 1+spsc.drain(batchKeys, 1, MAX_BATCH-1);
+            }
+            batchIdx = 0;
+        }
+    }
+
+    @Benchmark public int deliver(Fixture f) {
+        if (f.batchIdx == f.batchSize)
+            f.refill();
+        int i = f.batchIdx++, key = f.batchKeys[i];
+        Blackhole.consumeCPU(f.consumerTokens);
+        if (f.conflating != null) {
+            int value = f.batchValues[i];
+            f.caughtUp += value-f.delivered[key];
+            f.delivered[key] = value;
+        } else {
+            ++f.caughtUp;
+        }
+        return key;
+    }
+}
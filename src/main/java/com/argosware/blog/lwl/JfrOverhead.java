@@ -0,0 +1,72 @@
+package com.argosware.blog.lwl;
+
+import jdk.jfr.Recording;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.*;
+
+/**
+ * Producer throughput with a consumer thread, with {@link QueueEvents} enabled or not in
+ * the queue and with a JFR recording of those events running or not.
+ */
+@State(Scope.Thread)
+@Threads(1)
+@Fork(value = 3)
+@Measurement(iterations = 10, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JfrOverhead {
+    @Param({"LOCK", "SPIN", "SPSC", "PADDED_SPIN", "PADDED_SPSC", "MPMC"})
+    public LockingWithoutLock.Implementation implementation;
+    @Param({"1", "16"}) public int capacity;
+    @Param({"false", "true"}) public boolean events;
+    @Param({"false", "true"}) public boolean recording;
+
+    private final ExecutorService executor = BenchmarkSupport.newDaemonPool("jfr-consumer-");
+    private @Nullable Recording jfr;
+    private @MonotonicNonNull Queue queue;
+    private @MonotonicNonNull Future<?> consumerFuture;
+    private int counter;
+
+    @Setup(Level.Trial) public void trialSetup() {
+        if (recording) {
+            jfr = new Recording();
+            jfr.setName("JfrOverhead");
+            for (var type : new Class<?>[]{QueueEvents.Park.class, QueueEvents.LockSpin.class,
+                                           QueueEvents.ConditionWait.class, QueueEvents.Close.class})
+                jfr.enable(type.getAnnotation(jdk.jfr.Name.class).value());
+            jfr.start();
+        }
+    }
+
+    @TearDown(Level.Trial) public void trialTearDown() {
+        if (jfr != null) {
+            jfr.stop();
+            jfr.close();
+            jfr = null;
+        }
+        executor.shutdownNow();
+    }
+
+    @Setup(Level.Iteration) public void setup(Blackhole bh) {
+        queue = implementation.create(capacity, events);
+        consumerFuture = executor.submit(() -> {
+            try {
+                while (true) bh.consume(queue.take());
+            } catch (Queue.ClosedException ignored) { }
+        });
+    }
+
+    @TearDown(Level.Iteration) public void tearDown() throws Exception {
+        queue.close();
+        consumerFuture.get();
+    }
+
+    @Benchmark public void put() {
+        queue.put(counter++);
+    }
+}
@@ -0,0 +1,124 @@
+package com.argosware.blog.lwl;
+
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Producer throughput of a {@link JournalQueue} shared by {@code producers} threads, with
+ * a consumer thread, under commit-every-N and time-bounded commit policies.
+ *
+ * <p>The JMH thread is one of the producers, the others are counterpart threads appending
+ * to the same journal, so concurrent producers share group commits. Producers are
+ * symmetric, thus the total append rate is the score multiplied by {@code producers}.</p>
+ *
+ * <p>Commit latency is the time from {@link Queue#put(int)} to the end of the commit that
+ * made the record durable, taken by a {@link JournalQueue.CommitListener}. It does not
+ * include any consumer backlog. Each record is the low 32 bits of
+ * {@link System#nanoTime()} at the put, so latencies up to about 2 seconds are exact.
+ * Percentiles are taken from a single measurement iteration of a single fork, see
+ * {@link BenchmarkSupport#requireSingleMeasurement(BenchmarkParams)}.</p>
+ *
+ * <p>Journals are created in a new directory under {@code java.io.tmpdir} for every
+ * iteration: point it to the device under test, forcing a tmpfs is nearly free.</p>
+ */
+@Threads(1)
+@Fork(value = 1)
+@Measurement(iterations = 1, time = 2, timeUnit = TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Journal {
+    @State(Scope.Thread)
+    public static class Config {
+        /** {@code every:N} commits every N records, {@code micros:T} once the oldest
+         *  uncommitted record is T microseconds old */
+        @Param({"every:1", "every:64", "every:1024", "micros:100", "micros:1000"})
+        public String commit;
+        @Param({"1048576"}) public int segmentRecords;
+        @Param({"1", "4", "16"}) public int producers;
+
+        private int commitEvery() {
+            return commit.startsWith("every:") ? Integer.parseInt(commit.substring(6))
+                                               : Integer.MAX_VALUE;
+        }
+
+        private long commitNanos() {
+            return commit.startsWith("micros:") ? Long.parseLong(commit.substring(7))*1_000 : 0;
+        }
+    }
+
+    /** All mutable state, see {@link AllocationFree.Fixture} */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Fixture {
+        public double commitP50Nanos, commitP99Nanos, commitP999Nanos;
+
+        private final ExecutorService executor = BenchmarkSupport.newDaemonPool("journal-counterpart-");
+        private final List<Future<?>> counterparts = new ArrayList<>();
+        /** Only touched by the commit leader, one commit at a time */
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private @MonotonicNonNull Path dir;
+        private @MonotonicNonNull Queue queue;
+
+        @Setup(Level.Trial) public void trialSetup(BenchmarkParams params) {
+            BenchmarkSupport.requireSingleMeasurement(params);
+        }
+
+        @Setup(Level.Iteration) public void setup(Config c) throws IOException {
+            latency.reset();
+            dir = Files.createTempDirectory("journal-queue");
+            var queue = new JournalQueue(dir, c.segmentRecords, c.commitEvery(), c.commitNanos(),
+                    (record, nanoTime) -> latency.record((int)nanoTime-record));
+            this.queue = queue;
+            counterparts.add(executor.submit(() -> {
+                try {
+                    while (true) queue.take();
+                } catch (Queue.ClosedException ignored) { }
+            }));
+            for (int i = 1; i < c.producers; i++) {
+                counterparts.add(executor.submit(() -> {
+                    try {
+                        while (true) queue.put((int)System.nanoTime());
+                    } catch (Queue.ClosedException ignored) { }
+                }));
+            }
+        }
+
+        @TearDown(Level.Iteration) public void tearDown() throws Exception {
+            queue.close();
+            for (Future<?> f : counterparts)
+                f.get();
+            counterparts.clear();
+            try (var files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> {
+                    try {
+                        Files.delete(p);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            commitP50Nanos  = latency.percentile(0.5);
+            commitP99Nanos  = latency.percentile(0.99);
+            commitP999Nanos = latency.percentile(0.999);
+        }
+
+        @TearDown(Level.Trial) public void trialTearDown() {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark public void put(Fixture f) {
+        f.queue.put((int)System.nanoTime());
+    }
+}
@@ -0,0 +1,322 @@
+package com.argosware.blog.lwl;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Unbounded, persistent queue appending ints to rolling memory-mapped segment files in
+ * {@code dir}.
+ *
+ * <p>Appended records are only visible to consumers once committed: a group commit
+ * forces every record appended so far (by any producer) and then persists the committed
+ * position and the consumer cursor to a small {@code meta} file. A producer triggers a
+ * commit when {@code commitEvery} records are uncommitted or when the oldest uncommitted
+ * record is older than {@code commitNanos} ({@code <= 0} disables the time bound). The
+ * time bound is only checked on {@link #put(int)}, thus an idle producer must call
+ * {@link #flush()}. A record is acknowledged once the commit covering it returns.
+ * Producers that trigger a commit while another one is forcing wait for it and then lead
+ * the next commit if their records were not covered. The lock is not held while forcing,
+ * so producers keep appending and consumers keep reading meanwhile.</p>
+ *
+ * <p>Opening an existing {@code dir} resumes from the persisted state: uncommitted records
+ * are discarded and consumers replay from the last persisted cursor, thus records taken
+ * after the last commit are delivered again (at-least-once). Segments behind the
+ * persisted cursor are deleted. {@link #close()} commits pending records and the cursor.
+ * I/O failures after construction surface as {@link UncheckedIOException}.</p>
+ */
+class JournalQueue implements Queue {
+    /**
+     * Receives every record made durable by a commit and the {@link System#nanoTime()} at
+     * which that commit completed. Called by the commit leader without holding the lock,
+     * one commit at a time, before consumers can see the records.
+     */
+    interface CommitListener {
+        void committed(int record, long nanoTime);
+    }
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final int META_COMMITTED = 0, META_CURSOR = 8;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasItems = lock.newCondition();
+    private final Condition committed = lock.newCondition();
+    private final Path dir;
+    private final int segmentRecords, commitEvery;
+    private final long commitNanos;
+    private final @Nullable CommitListener listener;
+    private final MappedByteBuffer meta;
+    /** Mapped segments, from {@code firstSegment} up to the one holding {@code writeSeq} */
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    /** Segments forced by the current commit leader, only touched while {@code committing} */
+    private final List<MappedByteBuffer> forcing = new ArrayList<>();
+    private long firstSegment;
+    /** Record indices: next to append, end of committed, next to read and persisted cursor */
+    private long writeSeq, committedSeq, readSeq, persistedCursor;
+    private long pendingSince;
+    private boolean committing, closed;
+
+    public JournalQueue(Path dir, int segmentRecords, int commitEvery,
+                        long commitNanos) throws IOException {
+        this(dir, segmentRecords, commitEvery, commitNanos, null);
+    }
+
+    JournalQueue(Path dir, int segmentRecords, int commitEvery, long commitNanos,
+                 @Nullable CommitListener listener) throws IOException {
+        if (segmentRecords < 1 || segmentRecords > Integer.MAX_VALUE/Integer.BYTES)
+            throw new IllegalArgumentException("segmentRecords not in [1, 2^29)");
+        if (commitEvery < 1)
+            throw new IllegalArgumentException("commitEvery < 1");
+        this.dir = dir;
+        this.segmentRecords = segmentRecords;
+        this.commitEvery = commitEvery;
+        this.commitNanos = commitNanos;
+        this.listener = listener;
+        Files.createDirectories(dir);
+        meta = map(dir.resolve("meta"), 2*Long.BYTES);
+        writeSeq = committedSeq = meta.getLong(META_COMMITTED);
+        readSeq = persistedCursor = meta.getLong(META_CURSOR);
+        firstSegment = readSeq/segmentRecords;
+        try (var files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    long index = Long.parseLong(name, 0, name.length()-SEGMENT_SUFFIX.length(), 10);
+                    if (index < firstSegment)
+                        Files.delete(file);
+                }
+            }
+        }
+        for (long i = firstSegment, last = writeSeq/segmentRecords; i <= last; i++)
+            segments.add(map(segmentPath(i), segmentRecords*Integer.BYTES));
+    }
+
+    private static MappedByteBuffer map(Path path, int bytes) throws IOException {
+        try (var channel = FileChannel.open(path, CREATE, READ, WRITE)) {
+            return channel.map(READ_WRITE, 0, bytes);
+        }
+    }
+
+    private Path segmentPath(long index) { return dir.resolve(index+SEGMENT_SUFFIX); }
+
+    private MappedByteBuffer segment(long seq) {
+        return segments.get((int)(seq/segmentRecords - firstSegment));
+    }
+
+    private static int offset(long seq, int segmentRecords) {
+        return (int)(seq%segmentRecords)*Integer.BYTES;
+    }
+
+    /* --- --- --- called with the lock held --- --- --- */
+
+    /** Maps the segment holding {@code writeSeq} if the previous append filled the last one. */
+    private MappedByteBuffer writeSegment() {
+        long seq = writeSeq;
+        if (seq/segmentRecords - firstSegment == segments.size()) {
+            try {
+                segments.add(map(segmentPath(seq/segmentRecords), segmentRecords*Integer.BYTES));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return segment(seq);
+    }
+
+    private void append(int value) {
+        long seq = writeSeq;
+        writeSegment().putInt(offset(seq, segmentRecords), value);
+        if (seq == committedSeq)
+            pendingSince = commitNanos > 0 ? System.nanoTime() : 0;
+        writeSeq = seq+1;
+    }
+
+    private int read() {
+        long seq = readSeq++;
+        return segment(seq).getInt(offset(seq, segmentRecords));
+    }
+
+    /**
+     * Waits for or leads group commits until records before {@code target} are durable
+     * and the persisted consumer cursor is at least {@code cursor}.
+     */
+    private void commit(long target, long cursor) {
+        while (committedSeq < target || persistedCursor < cursor) {
+            if (committing) {
+                committed.awaitUninterruptibly();
+                continue;
+            }
+            committing = true;
+            long start = committedSeq, end = writeSeq, cursorSeq = readSeq, now = System.nanoTime();
+            if (end > start) {
+                for (long i = start/segmentRecords, last = (end-1)/segmentRecords; i <= last; i++)
+                    forcing.add(segments.get((int)(i-firstSegment)));
+            }
+            boolean done = false;
+            lock.unlock();
+            try {
+                for (int i = 0, n = forcing.size(); i < n; i++) {
+                    long segmentStart = (start/segmentRecords + i)*segmentRecords;
+                    int from = (int)(Math.max(start, segmentStart) - segmentStart)*Integer.BYTES;
+                    int to = (int)(Math.min(end, segmentStart+segmentRecords) - segmentStart)*Integer.BYTES;
+                    forcing.get(i).force(from, to-from);
+                }
+                meta.putLong(META_COMMITTED, end);
+                meta.putLong(META_CURSOR, cursorSeq);
+                meta.force();
+                done = true;
+                if (listener != null)
+                    notifyCommitted(listener, start, end);
+            } finally {
+                lock.lock();
+                forcing.clear();
+                committing = false;
+                if (done) {
+                    committedSeq = end;
+                    persistedCursor = cursorSeq;
+                    if (writeSeq > end)
+                        pendingSince = now; // appended during the force, after now
+                    hasItems.signalAll();
+                }
+                committed.signalAll();
+            }
+            deleteConsumedSegments();
+        }
+    }
+
+    /** Passes records in {@code [start, end)} to the listener, reading the forced segments. */
+    private void notifyCommitted(CommitListener listener, long start, long end) {
+        long now = System.nanoTime();
+        for (long seq = start; seq < end; seq++) {
+            var segment = forcing.get((int)(seq/segmentRecords - start/segmentRecords));
+            listener.committed(segment.getInt(offset(seq, segmentRecords)), now);
+        }
+    }
+
+    private void deleteConsumedSegments() {
+        while (firstSegment < persistedCursor/segmentRecords) {
+            segments.remove(0);
+            try {
+                Files.deleteIfExists(segmentPath(firstSegment++));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /* --- --- --- Queue --- --- --- */
+
+    @Override public void close() {
+        lock.lock();
+        try {
+            if (!closed) {
+                try {
+                    commit(writeSeq, readSeq);
+                } finally {
+                    closed = true;
+                    hasItems.signalAll();
+                }
+            }
+        } finally { lock.unlock(); }
+    }
+
+    /** Discards all records and reopens the queue. */
+    @Override public void reset() {
+        lock.lock();
+        try {
+            if (!closed)
+                throw new IllegalStateException("reset() on open queue");
+            readSeq = writeSeq;
+            commit(writeSeq, readSeq);
+            closed = false;
+        } finally { lock.unlock(); }
+    }
+
+    /** Commits all appended records and the consumer cursor. Any thread may call this. */
+    @Override public void flush() throws ClosedException {
+        lock.lock();
+        try {
+            if (closed)
+                throw ClosedException.INSTANCE;
+            commit(writeSeq, readSeq);
+        } finally { lock.unlock(); }
+    }
+
+    /** Same as {@link #put(int)}: the journal is unbounded. */
+    @Override public boolean offer(int value) throws ClosedException {
+        put(value);
+        return true;
+    }
+
+    @Override public void put(int value) throws ClosedException {
+        lock.lock();
+        try {
+            if (closed)
+                throw ClosedException.INSTANCE;
+            append(value);
+            if (writeSeq-committedSeq >= commitEvery
+                    || (commitNanos > 0 && System.nanoTime()-pendingSince >= commitNanos)) {
+                commit(writeSeq, 0);
+            }
+        } finally { lock.unlock(); }
+    }
+
+    @Override public int poll(int fallback) throws ClosedException {
+        lock.lock();
+        try {
+            if (closed)
+                throw ClosedException.INSTANCE;
+            return readSeq < committedSeq ? read() : fallback;
+        } finally { lock.unlock(); }
+    }
+
+    @Override public int drain(int[] dst, int offset, int max) throws ClosedException {
+        lock.lock();
+        try {
+            if (closed)
+                throw ClosedException.INSTANCE;
+            int n = (int)Math.min(committedSeq-readSeq, max);
+            for (int i = 0; i < n; i++)
+                dst[offset+i] = read();
+            return n;
+        } finally { lock.unlock(); }
+    }
+
+    @Override public int take() throws ClosedException {
+        lock.lock();
+        try {
+            while (readSeq == committedSeq && !closed)
+                hasItems.awaitUninterruptibly();
+            if (closed)
+                throw ClosedException.INSTANCE;
+            return read();
+        } finally { lock.unlock(); }
+    }
+
+    /**
+     * Maps the segment the next record goes to and loads it into memory. No record is
+     * appended or consumed, since records are durable data, thus {@code operations} only
+     * selects whether to do anything ({@code > 0}).
+     */
+    @Override public void prewarm(int operations) {
+        if (operations <= 0)
+            return;
+        lock.lock();
+        try {
+            if (closed)
+                throw ClosedException.INSTANCE;
+            writeSegment().load();
+        } finally { lock.unlock(); }
+    }
+}
@@ -0,0 +1,56 @@
+package com.argosware.blog.lwl;
+
+/**
+ * Allocation-free log-linear histogram of non-negative {@code long} values.
+ *
+ * <p>Values below 16 are exact. Above that, each power of two is split in 16 buckets,
+ * thus values are kept with a relative error of at most 1/16. Not thread-safe.</p>
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private final long[] counts = new long[(64-SUB_BITS)*SUB];
+    private long total;
+
+    void reset() {
+        java.util.Arrays.fill(counts, 0);
+        total = 0;
+    }
+
+    long total() { return total; }
+
+    void record(long value) {
+        if (value < 0)
+            value = 0;
+        ++counts[index(value)];
+        ++total;
+    }
+
+    /** Upper bound of the bucket holding the {@code p}-quantile, {@code 0 <= p <= 1}. */
+    long percentile(double p) {
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long)Math.ceil(p*total)), seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if ((seen += counts[i]) >= rank)
+                return upperBound(i);
+        }
+        return upperBound(counts.length-1);
+    }
+
+    private static int index(long value) {
+        if (value < SUB)
+            return (int)value;
+        int exp = 63-Long.numberOfLeadingZeros(value);
+        int sub = (int)(value >>> (exp-SUB_BITS)) & (SUB-1);
+        return (exp-SUB_BITS+1)*SUB + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB)
+            return index;
+        int exp = index/SUB + SUB_BITS - 1, shift = exp-SUB_BITS;
+        long lower = (long)(SUB + index%SUB) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -8,22 +8,57 @@ class LockQueue implements Queue {
     private final Condition hasSpace = lock.newCondition();
     private final Condition hasItems = lock.newCondition();
     private final int[] data;
+    private final boolean events;
     private int readIdx, size;
     private boolean closed;
 
-    public LockQueue(int capacity) {
+    public LockQueue(int capacity) { this(capacity, false); }
+
+    public LockQueue(int capacity, boolean events) {
         this.data = new int[capacity];
+        this.events = events;
+    }
+
+    private void await(Condition condition, String name) {
+        if (!events) {
+            condition.awaitUninterruptibly();
+            return;
+        }
+        var event = new QueueEvents.ConditionWait();
+        event.begin();
+        condition.awaitUninterruptibly();
+        event.end();
+        if (event.shouldCommit()) {
+            event.queueClass = LockQueue.class;
+            event.condition = name;
+            event.commit();
+        }
     }
 
     @Override public void close() {
         lock.lock();
         try {
             closed = true;
+            if (events) {
+                int woken = lock.getWaitQueueLength(hasSpace) + lock.getWaitQueueLength(hasItems);
+                if (woken > 0)
+                    QueueEvents.close(LockQueue.class, woken);
+            }
             hasSpace.signalAll();
             hasItems.signalAll();
         } finally { lock.unlock(); }
     }
 
+    @Override public void reset() {
+        lock.lock();
+        try {
+            if (!closed)
+                throw new IllegalStateException("reset() on open queue");
+            readIdx = size = 0;
+            closed = false;
+        } finally { lock.unlock(); }
+    }
+
     @Override public boolean offer(int value) throws ClosedException {
         lock.lock();
         try {
@@ -44,7 +79,7 @@ class LockQueue implements Queue {
         lock.lock();
         try {
             while (size == data.length && !closed)
-                hasSpace.awaitUninterruptibly();
+                await(hasSpace, "hasSpace");
             if (closed)
                 throw ClosedException.INSTANCE;
             data[(readIdx+size)%data.length] = value;
@@ -72,11 +107,31 @@ class LockQueue implements Queue {
         } finally { lock.unlock(); }
     }
 
+    @Override public int drain(int[] dst, int offset, int max) throws ClosedException {
+        lock.lock();
+        try {
+            if (closed)
+                throw ClosedException.INSTANCE;
+            int n = Math.min(size, max), readIdx = this.readIdx;
+            for (int i = 0; i < n; i++) {
+                dst[offset+i] = data[readIdx];
+                readIdx = (readIdx+1)%data.length;
+            }
+            this.readIdx = readIdx;
+            size -= n;
+            if (n == 1)
+                hasSpace.signal();
+            else if (n > 1)
+                hasSpace.signalAll();
+            return n;
+        } finally { lock.unlock(); }
+    }
+
     @Override public int take() throws ClosedException {
         lock.lock();
         try {
             while (size == 0 && !closed)
-                hasItems.awaitUninterruptibly();
+                await(hasItems, "hasItems");
             if (closed)
                 throw ClosedException.INSTANCE;
             int readIdx = this.readIdx, item = data[readIdx];
@@ -55,19 +55,33 @@ public class LockingWithoutLock {
         SPIN,
         SPSC,
         PADDED_SPIN,
-        PADDED_SPSC;
-        public Queue create(int capacity) {
+        PADDED_SPSC,
+        MPMC,
+        /**
+         * Zero-capacity {@link RendezvousQueue}, ignores {@code capacity}. Benchmarks that
+         * vary {@code capacity} leave it out of their default grid to avoid duplicate rows:
+         * compare it with the capacity-1 rows by running them with {@code -p capacity=1
+         * -p implementation=LOCK,SPIN,SPSC,PADDED_SPIN,PADDED_SPSC,MPMC,RENDEZVOUS}.
+         */
+        RENDEZVOUS;
+        public Queue create(int capacity) { return create(capacity, false); }
+
+        /** {@code events} enables the JFR events in {@link QueueEvents} for the new queue. */
+        public Queue create(int capacity, boolean events) {
             return switch (this) {
-                case LOCK        -> new LockQueue(capacity);
-                case SPIN        -> new SpinQueue(capacity);
-                case SPSC        -> new SPSCQueue(capacity);
-                case PADDED_SPIN -> new PaddedSpinQueue(capacity);
-                case PADDED_SPSC -> new PaddedSPSCQueue(capacity);
+                case LOCK        -> new LockQueue(capacity, events);
+                case SPIN        -> new SpinQueue(capacity, events);
+                case SPSC        -> new SPSCQueue(capacity, events);
+                case PADDED_SPIN -> new PaddedSpinQueue(capacity, events);
+                case PADDED_SPSC -> new PaddedSPSCQueue(capacity, events);
+                case MPMC        -> new MPMCQueue(capacity, events);
+                case RENDEZVOUS  -> new RendezvousQueue(events);
             };
         }
     }
 
-    @Param public Implementation implementation;
+    @Param({"LOCK", "SPIN", "SPSC", "PADDED_SPIN", "PADDED_SPSC", "MPMC"})
+    public Implementation implementation;
     @Param({"1", "4", "16", "256"}) public int capacity;
     private final AtomicInteger nextPairId = new AtomicInteger();
     private final List<Queue> queues = new ArrayList<>();
@@ -0,0 +1,316 @@
+package com.argosware.blog.lwl;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.Thread.currentThread;
+
+/**
+ * Blocking queue for any number of producers and consumers.
+ *
+ * <p>Like {@link SPSCQueue}, data is guarded by a spin lock. Unlike it, threads that find
+ * the queue full (or empty) park after pushing their {@link Waiter} onto a stack of
+ * producers (or consumers). Each state change pops one waiter of the other side and wakes
+ * it after releasing the lock; the woken thread re-checks the state under the lock. Stacks
+ * are only changed while holding the lock, so a thread about to park is always visible to
+ * the thread that changes the state, and a waiter that leaves without being popped
+ * (spurious wake-up followed by success, or {@link ClosedException}) simply unlinks
+ * itself. Each thread reuses one {@link Waiter} for every queue: it blocks on one queue at
+ * a time and its waiter is never linked once {@link #put(int)} or {@link #take()} returns,
+ * thus parking does not allocate.</p>
+ */
+class MPMCQueue implements Queue {
+    private static final VarHandle LOCK;
+    private static final ThreadLocal<Waiter> WAITER = ThreadLocal.withInitial(Waiter::new);
+
+    static {
+        try {
+            LOCK = MethodHandles.lookup().findVarHandle(MPMCQueue.class, "plainLock", int.class);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** Fields are only accessed while holding the lock of the queue it is linked to. */
+    private static final class Waiter {
+        private final Thread thread = currentThread();
+        private @Nullable Waiter next;
+        private boolean linked;
+    }
+
+    /** Stack of waiters, only accessed while holding the lock. */
+    private static final class WaitStack {
+        private @Nullable Waiter head;
+
+        private void push(Waiter waiter) {
+            waiter.next = head;
+            waiter.linked = true;
+            head = waiter;
+        }
+
+        /** Unlinks the top waiter and returns its thread, or null if there is none. */
+        private @Nullable Thread pop() {
+            Waiter waiter = head;
+            if (waiter == null)
+                return null;
+            head = waiter.next;
+            waiter.next = null;
+            waiter.linked = false;
+            return waiter.thread;
+        }
+
+        /** Unlinks {@code waiter} if it is still linked (it was not popped). */
+        private void remove(@Nullable Waiter waiter) {
+            if (waiter == null || !waiter.linked)
+                return;
+            if (head == waiter) {
+                head = waiter.next;
+            } else {
+                Waiter prev = head;
+                while (prev.next != waiter)
+                    prev = prev.next;
+                prev.next = waiter.next;
+            }
+            waiter.next = null;
+            waiter.linked = false;
+        }
+    }
+
+    @SuppressWarnings("unused") private int plainLock;
+    private final WaitStack producers = new WaitStack(), consumers = new WaitStack();
+    private final int[] data;
+    private final boolean events;
+    private int readIdx, size;
+    private boolean closed;
+
+    public MPMCQueue(int capacity) { this(capacity, false); }
+
+    public MPMCQueue(int capacity, boolean events) {
+        this.data = new int[capacity];
+        this.events = events;
+    }
+
+    /**
+     * Pops and wakes up to {@code max} waiters, taking the lock for each one so that no
+     * thread is unparked while holding it.
+     *
+     * @return number of threads woken
+     */
+    private int wake(WaitStack stack, int max) {
+        int woken = 0;
+        for (; woken < max; ++woken) {
+            Thread thread;
+            if (!events) {
+                while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                    Thread.onSpinWait();
+            } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+                QueueEvents.spinLock(LOCK, this);
+            }
+            try {
+                thread = stack.pop();
+            } finally { LOCK.setRelease(this, 0); }
+            if (thread == null)
+                break;
+            LockSupport.unpark(thread);
+        }
+        return woken;
+    }
+
+    @Override public void close() {
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            closed = true;
+        } finally {
+            LOCK.setRelease(this, 0);
+        }
+        // no thread pushes once closed is set
+        int woken = wake(producers, Integer.MAX_VALUE) + wake(consumers, Integer.MAX_VALUE);
+        if (events && woken > 0)
+            QueueEvents.close(getClass(), woken);
+    }
+
+    @Override public void reset() {
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            if (!closed)
+                throw new IllegalStateException("reset() on open queue");
+            readIdx = size = 0;
+            while (producers.pop() != null) { }
+            while (consumers.pop() != null) { }
+            closed = false;
+        } finally { LOCK.setRelease(this, 0); }
+    }
+
+    @Override public boolean offer(int value) throws ClosedException {
+        Thread unpark = null;
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            if (closed) {
+                throw ClosedException.INSTANCE;
+            } else if (size >= data.length) {
+                return false;
+            } else {
+                data[(readIdx+size)%data.length] = value;
+                ++size;
+                unpark = consumers.pop();
+                return true;
+            }
+        } finally {
+            LOCK.setRelease(this, 0);
+            LockSupport.unpark(unpark);
+        }
+    }
+
+    @Override public void put(int value) throws ClosedException {
+        Waiter waiter = null;
+        while (true) {
+            Thread unpark = null;
+            boolean added = false;
+            if (!events) {
+                while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                    Thread.onSpinWait();
+            } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+                QueueEvents.spinLock(LOCK, this);
+            }
+            try {
+                if (closed) {
+                    producers.remove(waiter);
+                    throw ClosedException.INSTANCE;
+                } else if (size >= data.length) {
+                    if (waiter == null)
+                        waiter = WAITER.get();
+                    if (!waiter.linked)
+                        producers.push(waiter);
+                } else {
+                    data[(readIdx+size)%data.length] = value;
+                    ++size;
+                    producers.remove(waiter);
+                    unpark = consumers.pop();
+                    added = true;
+                }
+            } finally {
+                LOCK.setRelease(this, 0);
+                LockSupport.unpark(unpark);
+            }
+            if (added)
+                return;
+            QueueEvents.park(this, QueueEvents.PRODUCER, events);
+        }
+    }
+
+    @Override public int poll(int fallback) throws ClosedException {
+        Thread unpark = null;
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            if (closed) {
+                throw ClosedException.INSTANCE;
+            } else if (size == 0) {
+                return fallback;
+            } else {
+                int readIdx = this.readIdx, item = data[readIdx];
+                this.readIdx = (readIdx+1)%data.length;
+                --size;
+                unpark = producers.pop();
+                return item;
+            }
+        } finally {
+            LOCK.setRelease(this, 0);
+            LockSupport.unpark(unpark);
+        }
+    }
+
+    @Override public int drain(int[] dst, int offset, int max) throws ClosedException {
+        Thread unpark = null;
+        int n = 0;
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            if (closed)
+                throw ClosedException.INSTANCE;
+            n = Math.min(size, max);
+            int readIdx = this.readIdx;
+            for (int i = 0; i < n; i++) {
+                dst[offset+i] = data[readIdx];
+                readIdx = (readIdx+1)%data.length;
+            }
+            this.readIdx = readIdx;
+            size -= n;
+            if (n > 0)
+                unpark = producers.pop();
+            return n;
+        } finally {
+            LOCK.setRelease(this, 0);
+            if (unpark != null) {
+                LockSupport.unpark(unpark);
+                wake(producers, n-1);
+            }
+        }
+    }
+
+    @Override public int take() throws ClosedException {
+        Waiter waiter = null;
+        while (true) {
+            Thread unpark = null;
+            boolean removed = false;
+            int item = 0;
+            if (!events) {
+                while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                    Thread.onSpinWait();
+            } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+                QueueEvents.spinLock(LOCK, this);
+            }
+            try {
+                if (closed) {
+                    consumers.remove(waiter);
+                    throw ClosedException.INSTANCE;
+                } else if (size == 0) {
+                    if (waiter == null)
+                        waiter = WAITER.get();
+                    if (!waiter.linked)
+                        consumers.push(waiter);
+                } else {
+                    int readIdx = this.readIdx;
+                    item = data[readIdx];
+                    this.readIdx = (readIdx+1)%data.length;
+                    --size;
+                    consumers.remove(waiter);
+                    unpark = producers.pop();
+                    removed = true;
+                }
+            } finally {
+                LOCK.setRelease(this, 0);
+                LockSupport.unpark(unpark);
+            }
+            if (removed)
+                return item;
+            QueueEvents.park(this, QueueEvents.CONSUMER, events);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.argosware.blog.lwl;
+
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Blocking queues shared by {@code threadsPerSide} producers and as many consumers.
+ *
+ * <p>The JMH thread is one of the producers, the other producers and all consumers are
+ * counterpart threads. Producers are symmetric, thus the total transfer rate is the score
+ * multiplied by {@code threadsPerSide}. Counterparts are not driven by JMH groups because
+ * a thread blocked in {@link Queue#take()} after its group peers finished would hang the
+ * iteration; here {@link Queue#close()} releases them at tear down.</p>
+ */
+@State(Scope.Thread)
+@Threads(1)
+@Fork(value = 3)
+@Measurement(iterations = 10, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MultiWaiter {
+    @Param({"LOCK", "MPMC", "SPSC"}) public LockingWithoutLock.Implementation implementation;
+    @Param({"16"}) public int capacity;
+    @Param({"2", "4", "8", "16", "32"}) public int threadsPerSide;
+
+    private final ExecutorService executor = BenchmarkSupport.newDaemonPool("multi-waiter-");
+    private final List<Future<?>> counterparts = new ArrayList<>();
+    private @MonotonicNonNull Queue queue;
+    private int counter;
+
+    @Setup(Level.Iteration) public void setup(Blackhole bh) {
+        queue = implementation.create(capacity);
+        for (int i = 1; i < threadsPerSide; i++) {
+            counterparts.add(executor.submit(() -> {
+                try {
+                    for (int j = 0; true; j++) queue.put(j);
+                } catch (Queue.ClosedException ignored) { }
+            }));
+        }
+        for (int i = 0; i < threadsPerSide; i++) {
+            counterparts.add(executor.submit(() -> {
+                try {
+                    while (true) bh.consume(queue.take());
+                } catch (Queue.ClosedException ignored) { }
+            }));
+        }
+    }
+
+    @TearDown(Level.Iteration) public void tearDown() throws Exception {
+        queue.close();
+        for (Future<?> f : counterparts)
+            f.get();
+        counterparts.clear();
+    }
+
+    @TearDown(Level.Trial) public void trialTearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark public void put() {
+        queue.put(counter++);
+    }
+}
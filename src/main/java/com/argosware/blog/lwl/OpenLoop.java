@@ -0,0 +1,162 @@
+package com.argosware.blog.lwl;
+
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load: a producer thread offers items at a target arrival rate while the JMH
+ * thread consumes them, spending {@code serviceNanos} on each.
+ *
+ * <p>Queueing latency is measured from the <strong>scheduled</strong> arrival, thus a
+ * producer delayed by a full queue does not hide latency (no coordinated omission).
+ * Wake-up latency is measured only for items that arrived while the consumer was already
+ * inside {@link Queue#take()}: it is the time between the start of {@link Queue#put(int)}
+ * and the return of {@link Queue#take()}.</p>
+ *
+ * <p>Percentiles are taken from a single measurement iteration of a single fork, see
+ * {@link BenchmarkSupport#requireSingleMeasurement(BenchmarkParams)}.</p>
+ */
+@Threads(1)
+@Fork(value = 1)
+@Measurement(iterations = 1, time = 2, timeUnit = TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OpenLoop {
+    private static final int TS_BITS = 16, TS_MASK = (1 << TS_BITS) - 1;
+    /** Below this, the producer spins instead of parking until the next arrival. */
+    private static final long SPIN_NANOS = 50_000;
+
+    public enum Arrival {
+        /** Fixed interval between arrivals */
+        CONSTANT,
+        /** Exponentially distributed intervals between arrivals */
+        POISSON,
+        /** {@code burst} back-to-back arrivals followed by an idle gap */
+        ON_OFF
+    }
+
+    @State(Scope.Thread)
+    public static class Config {
+        @Param public LockingWithoutLock.Implementation implementation;
+        @Param({"256"}) public int capacity;
+        @Param public Arrival arrival;
+        @Param({"0.1", "0.5", "0.9", "0.99"}) public double utilization;
+        @Param({"2000"}) public long serviceNanos;
+        @Param({"32"}) public int burst;
+    }
+
+    private static final class Producer implements Runnable {
+        private final Queue queue;
+        private final long[] scheduled, putStart;
+        private final Arrival arrival;
+        private final double meanGapNanos;
+        private final int burst;
+        private final SplittableRandom random = new SplittableRandom(0x5eed);
+        private volatile boolean stop;
+
+        private Producer(Queue queue, long[] scheduled, long[] putStart, Config c) {
+            this.queue = queue;
+            this.scheduled = scheduled;
+            this.putStart = putStart;
+            this.arrival = c.arrival;
+            this.meanGapNanos = c.serviceNanos / c.utilization;
+            this.burst = c.burst;
+        }
+
+        private long gap(int i) {
+            return switch (arrival) {
+                case CONSTANT -> (long)meanGapNanos;
+                case POISSON  -> (long)(-Math.log(1-random.nextDouble()) * meanGapNanos);
+                case ON_OFF   -> (i+1) % burst == 0 ? (long)(burst*meanGapNanos) : 0;
+            };
+        }
+
+        @Override public void run() {
+            long next = System.nanoTime();
+            try {
+                for (int i = 0; !stop; i++) {
+                    long remaining;
+                    while ((remaining = next-System.nanoTime()) > 0) {
+                        if (remaining > SPIN_NANOS)
+                            LockSupport.parkNanos(remaining-SPIN_NANOS);
+                        else
+                            Thread.onSpinWait();
+                    }
+                    int slot = i & TS_MASK;
+                    scheduled[slot] = next;
+                    putStart[slot] = System.nanoTime();
+                    queue.put(slot);
+                    next += gap(i);
+                }
+            } catch (Queue.ClosedException ignored) { }
+        }
+    }
+
+    /** All mutable state, see {@link AllocationFree.Fixture} */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Fixture {
+        public double latencyP50Nanos, latencyP90Nanos, latencyP99Nanos, latencyP999Nanos;
+        public double wakeupP50Nanos, wakeupP99Nanos;
+        public double wakeupRatio;
+
+        private final ExecutorService executor = BenchmarkSupport.newDaemonPool("open-loop-producer-");
+        private final long[] scheduled = new long[TS_MASK+1], putStart = new long[TS_MASK+1];
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram wakeup = new LatencyHistogram();
+        private @MonotonicNonNull Queue queue;
+        private @MonotonicNonNull Producer producer;
+        private @MonotonicNonNull Future<?> producerFuture;
+        private long serviceNanos;
+
+        @Setup(Level.Trial) public void trialSetup(BenchmarkParams params) {
+            BenchmarkSupport.requireSingleMeasurement(params);
+        }
+
+        @Setup(Level.Iteration) public void setup(Config c) {
+            if (c.capacity > TS_MASK)
+                throw new IllegalArgumentException("capacity > "+TS_MASK);
+            serviceNanos = c.serviceNanos;
+            latency.reset();
+            wakeup.reset();
+            queue = c.implementation.create(c.capacity);
+            producer = new Producer(queue, scheduled, putStart, c);
+            producerFuture = executor.submit(producer);
+        }
+
+        @TearDown(Level.Iteration) public void tearDown() throws Exception {
+            producer.stop = true;
+            queue.close();
+            producerFuture.get();
+            latencyP50Nanos  = latency.percentile(0.5);
+            latencyP90Nanos  = latency.percentile(0.9);
+            latencyP99Nanos  = latency.percentile(0.99);
+            latencyP999Nanos = latency.percentile(0.999);
+            wakeupP50Nanos   = wakeup.percentile(0.5);
+            wakeupP99Nanos   = wakeup.percentile(0.99);
+            wakeupRatio = latency.total() == 0 ? 0 : wakeup.total()/(double)latency.total();
+        }
+
+        @TearDown(Level.Trial) public void trialTearDown() {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark public int consume(Fixture f) {
+        long takeStart = System.nanoTime();
+        int slot = f.queue.take();
+        long now = System.nanoTime(), putStart = f.putStart[slot];
+        f.latency.record(now-f.scheduled[slot]);
+        if (putStart > takeStart)
+            f.wakeup.record(now-putStart);
+        for (long end = now+f.serviceNanos; System.nanoTime() < end; )
+            Thread.onSpinWait();
+        return slot;
+    }
+}
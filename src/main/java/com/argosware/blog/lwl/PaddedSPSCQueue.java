@@ -7,12 +7,18 @@ import java.util.concurrent.locks.LockSupport;
 import static java.lang.Thread.currentThread;
 
 public class PaddedSPSCQueue extends PaddedSPSCQueueL3 implements Queue {
-    public PaddedSPSCQueue(int capacity) { super(capacity); }
+    public PaddedSPSCQueue(int capacity) { this(capacity, false); }
+
+    public PaddedSPSCQueue(int capacity, boolean events) { super(capacity, events); }
 
     @Override public void close() {
         Thread consumer = null, producer = null;
-        while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-            Thread.onSpinWait();
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
         try {
             closed = true;
             consumer = this.consumer;
@@ -23,13 +29,35 @@ public class PaddedSPSCQueue extends PaddedSPSCQueueL3 implements Queue {
             LOCK.setRelease(this, 0);
             LockSupport.unpark(consumer);
             LockSupport.unpark(producer);
+            if (events && (consumer != null || producer != null))
+                QueueEvents.close(getClass(), (consumer == null ? 0 : 1) + (producer == null ? 0 : 1));
+        }
+    }
+
+    @Override public void reset() {
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
         }
+        try {
+            if (!closed)
+                throw new IllegalStateException("reset() on open queue");
+            readIdx = size = 0;
+            consumer = producer = null;
+            closed = false;
+        } finally { LOCK.setRelease(this, 0); }
     }
 
     @Override public boolean offer(int value) throws ClosedException {
         Thread unpark = null;
-        while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-            Thread.onSpinWait();
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
         try {
             if (closed) {
                 throw ClosedException.INSTANCE;
@@ -51,8 +79,12 @@ public class PaddedSPSCQueue extends PaddedSPSCQueueL3 implements Queue {
     @Override public void put(int value) throws ClosedException {
         while (true) {
             Thread unpark = null;
-            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-                Thread.onSpinWait();
+            if (!events) {
+                while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                    Thread.onSpinWait();
+            } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+                QueueEvents.spinLock(LOCK, this);
+            }
             boolean locked = true;
             try {
                 if (closed) {
@@ -62,7 +94,7 @@ public class PaddedSPSCQueue extends PaddedSPSCQueueL3 implements Queue {
                         producer = currentThread();
                         LOCK.setRelease(this, 0);
                         locked = false;
-                        LockSupport.park();
+                        QueueEvents.park(this, QueueEvents.PRODUCER, events);
                     }
                 } else {
                     data[DATA_OFF+(readIdx+size)%capacity] = value;
@@ -81,8 +113,12 @@ public class PaddedSPSCQueue extends PaddedSPSCQueueL3 implements Queue {
 
     @Override public int poll(int fallback) throws ClosedException {
         Thread unpark = null;
-        while ((int) LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-            Thread.onSpinWait();
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
         try {
             if (closed) {
                 throw ClosedException.INSTANCE;
@@ -102,11 +138,44 @@ public class PaddedSPSCQueue extends PaddedSPSCQueueL3 implements Queue {
         }
     }
 
+    @Override public int drain(int[] dst, int offset, int max) throws ClosedException {
+        Thread unpark = null;
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            if (closed)
+                throw ClosedException.INSTANCE;
+            int n = Math.min(size, max), readIdx = this.readIdx;
+            for (int i = 0; i < n; i++) {
+                dst[offset+i] = data[DATA_OFF+readIdx];
+                readIdx = (readIdx+1)%capacity;
+            }
+            this.readIdx = readIdx;
+            size -= n;
+            if (n > 0) {
+                unpark = producer;
+                producer = null;
+            }
+            return n;
+        } finally {
+            LOCK.setRelease(this, 0);
+            LockSupport.unpark(unpark);
+        }
+    }
+
     @Override public int take() throws ClosedException {
         while (true) {
             Thread unpark = null;
-            while ((int) LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-                Thread.onSpinWait();
+            if (!events) {
+                while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                    Thread.onSpinWait();
+            } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+                QueueEvents.spinLock(LOCK, this);
+            }
             boolean locked = true;
             try {
                 if (closed) {
@@ -116,7 +185,7 @@ public class PaddedSPSCQueue extends PaddedSPSCQueueL3 implements Queue {
                         consumer = currentThread();
                         LOCK.setRelease(this, 0);
                         locked = false;
-                        LockSupport.park();
+                        QueueEvents.park(this, QueueEvents.CONSUMER, events);
                     }
                 } else {
                     int readIdx = this.readIdx, item = data[DATA_OFF+readIdx];
@@ -141,10 +210,12 @@ abstract class PaddedSPSCQueueL0 {
     protected static final int DATA_OFF = DATA_PADD-(16/4); // use array object header
     protected final int[] data;
     protected final int capacity;
+    protected final boolean events;
 
-    public PaddedSPSCQueueL0(int capacity) {
+    public PaddedSPSCQueueL0(int capacity, boolean events) {
         data = new int[DATA_OFF+capacity+DATA_PADD];
         this.capacity = capacity;
+        this.events = events;
     }
 }
 @SuppressWarnings("unused") abstract class PaddedSPSCQueueL1 extends PaddedSPSCQueueL0 {
@@ -163,7 +234,7 @@ abstract class PaddedSPSCQueueL0 {
     private byte b12_0, b12_1, b12_2, b12_3, b12_4, b12_5, b12_6, b12_7; // 120 bytes
     private byte b13_0, b13_1, b13_2, b13_3, b13_4, b13_5, b13_6, b13_7; // 128 bytes
 
-    public PaddedSPSCQueueL1(int capacity) {super(capacity);}
+    public PaddedSPSCQueueL1(int capacity, boolean events) {super(capacity, events);}
 }
 abstract class PaddedSPSCQueueL2 extends PaddedSPSCQueueL1 {
     protected static final VarHandle LOCK;
@@ -179,7 +250,7 @@ abstract class PaddedSPSCQueueL2 extends PaddedSPSCQueueL1 {
     protected int readIdx, size;
     protected boolean closed;
 
-    public PaddedSPSCQueueL2(int capacity) {super(capacity);}
+    public PaddedSPSCQueueL2(int capacity, boolean events) {super(capacity, events);}
 }
 @SuppressWarnings("unused") abstract class PaddedSPSCQueueL3 extends PaddedSPSCQueueL2 {
     private byte b00_0, b00_1, b00_2, b00_3, b00_4, b00_5, b00_6, b00_7; // 8  bytes
@@ -197,5 +268,5 @@ abstract class PaddedSPSCQueueL2 extends PaddedSPSCQueueL1 {
     private byte b12_0, b12_1, b12_2, b12_3, b12_4, b12_5, b12_6, b12_7; // 120 bytes
     private byte b13_0, b13_1, b13_2, b13_3, b13_4, b13_5, b13_6, b13_7; // 128 bytes
 
-    public PaddedSPSCQueueL3(int capacity) {super(capacity);}
+    public PaddedSPSCQueueL3(int capacity, boolean events) {super(capacity, events);}
 }
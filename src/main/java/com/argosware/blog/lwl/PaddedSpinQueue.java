@@ -4,21 +4,46 @@ import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
 
 public class PaddedSpinQueue extends PaddedSpinQueueL3 implements Queue {
-    public PaddedSpinQueue(int capacity) {
-        super(capacity);
+    public PaddedSpinQueue(int capacity) { this(capacity, false); }
+
+    public PaddedSpinQueue(int capacity, boolean events) {
+        super(capacity, events);
     }
 
     @Override public void close() {
-        while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-            Thread.onSpinWait();
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
         try {
             closed = true;
         } finally { LOCK.setRelease(this, 0); }
     }
 
+    @Override public void reset() {
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            if (!closed)
+                throw new IllegalStateException("reset() on open queue");
+            readIdx = size = 0;
+            closed = false;
+        } finally { LOCK.setRelease(this, 0); }
+    }
+
     @Override public boolean offer(int value) throws ClosedException {
-        while ((int) LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-            Thread.onSpinWait();
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
         try {
             if (size < capacity) {
                 data[DATA_OFF+(readIdx+size)%capacity] = value;
@@ -33,8 +58,12 @@ public class PaddedSpinQueue extends PaddedSpinQueueL3 implements Queue {
 
     @Override public void put(int value) throws ClosedException {
         while (true) {
-            while ((int) LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-                Thread.onSpinWait();
+            if (!events) {
+                while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                    Thread.onSpinWait();
+            } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+                QueueEvents.spinLock(LOCK, this);
+            }
             try {
                 if (size < capacity) {
                     data[DATA_OFF+(readIdx+size)%capacity] = value;
@@ -50,8 +79,12 @@ public class PaddedSpinQueue extends PaddedSpinQueueL3 implements Queue {
     }
 
     @Override public int poll(int fallback) throws ClosedException {
-        while ((int) LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-            Thread.onSpinWait();
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
         try {
             if (size > 0) {
                 int readIdx = this.readIdx, item = data[DATA_OFF+readIdx];
@@ -66,10 +99,35 @@ public class PaddedSpinQueue extends PaddedSpinQueueL3 implements Queue {
         } finally { LOCK.setRelease(this, 0); }
     }
 
+    @Override public int drain(int[] dst, int offset, int max) throws ClosedException {
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            if (size == 0 && closed)
+                throw ClosedException.INSTANCE;
+            int n = Math.min(size, max), readIdx = this.readIdx;
+            for (int i = 0; i < n; i++) {
+                dst[offset+i] = data[DATA_OFF+readIdx];
+                readIdx = (readIdx+1)%capacity;
+            }
+            this.readIdx = readIdx;
+            size -= n;
+            return n;
+        } finally { LOCK.setRelease(this, 0); }
+    }
+
     @Override public int take() throws ClosedException {
         while (true) {
-            while ((int) LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-                Thread.onSpinWait();
+            if (!events) {
+                while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                    Thread.onSpinWait();
+            } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+                QueueEvents.spinLock(LOCK, this);
+            }
             try {
                 if (size > 0) {
                     int readIdx = this.readIdx, item = data[DATA_OFF+readIdx];
@@ -91,10 +149,12 @@ public class PaddedSpinQueue extends PaddedSpinQueueL3 implements Queue {
     protected static final int DATA_OFF = DATA_PADDING-(16/4); // use array object header
     protected final int[] data;
     protected final int capacity;
+    protected final boolean events;
 
-    public PaddedSpinQueueL0(int capacity) {
+    public PaddedSpinQueueL0(int capacity, boolean events) {
         this.capacity = capacity;
         this.data = new int[DATA_OFF+capacity+DATA_PADDING];
+        this.events = events;
     }
 }
 @SuppressWarnings("unused") abstract class PaddedSpinQueueL1 extends PaddedSpinQueueL0 {
@@ -115,7 +175,7 @@ public class PaddedSpinQueue extends PaddedSpinQueueL3 implements Queue {
     private boolean p161, p162, p163, p164, p165, p166, p167, p168;
     private boolean p171, p172, p173, p174, p175, p176, p177, p178;
 
-    public PaddedSpinQueueL1(int capacity) {super(capacity);}
+    public PaddedSpinQueueL1(int capacity, boolean events) {super(capacity, events);}
 }
 abstract class PaddedSpinQueueL2 extends PaddedSpinQueueL1 {
     protected static final int DATA_OFF = (128-16)/4;
@@ -131,7 +191,7 @@ abstract class PaddedSpinQueueL2 extends PaddedSpinQueueL1 {
     protected int plainLock;
     protected int readIdx, size;
     protected boolean closed;
-    PaddedSpinQueueL2(int capacity) {super(capacity);}
+    PaddedSpinQueueL2(int capacity, boolean events) {super(capacity, events);}
 }
 @SuppressWarnings("unused") abstract class PaddedSpinQueueL3 extends PaddedSpinQueueL2 {
     private boolean p001, p002, p003, p004, p005, p006, p007, p008;
@@ -151,5 +211,5 @@ abstract class PaddedSpinQueueL2 extends PaddedSpinQueueL1 {
     private boolean p161, p162, p163, p164, p165, p166, p167, p168;
     private boolean p171, p172, p173, p174, p175, p176, p177, p178;
 
-    PaddedSpinQueueL3(int capacity) {super(capacity);}
+    PaddedSpinQueueL3(int capacity, boolean events) {super(capacity, events);}
 }
@@ -9,9 +9,61 @@ public interface Queue {
 
     int poll(int fallback) throws ClosedException;
 
+    /**
+     * Non-blocking removal of up to {@code max} items into {@code dst}, starting at
+     * {@code offset}.
+     *
+     * @return number of items written to {@code dst}, {@code 0} if the queue is empty.
+     */
+    int drain(int[] dst, int offset, int max) throws ClosedException;
+
     void put(int value) throws ClosedException;
 
     int take() throws ClosedException;
 
     void close();
+
+    /**
+     * Makes items buffered by the producer visible to consumers. Only the producer may
+     * call this. Queues that publish on every {@link #put(int)} do nothing.
+     */
+    default void flush() throws ClosedException { }
+
+    /**
+     * Reopens a closed queue, discarding any queued items.
+     *
+     * <p>The caller must ensure no thread is still using the queue, else a thread woken by
+     * {@link #close()} may observe the reopened queue instead of a {@link ClosedException}.</p>
+     *
+     * @throws IllegalStateException if the queue is not closed.
+     */
+    void reset();
+
+    /**
+     * Runs at least {@code operations} transfers through a bounded queue, touching every
+     * slot of the internal buffer and leaving the queue empty. Each pass fills the queue
+     * with {@code offer()}, empties it with {@code poll()}, then fills it with
+     * {@code put()} and empties it with {@code take()}. These never block, since a pass
+     * puts only as many items as {@code offer()} accepted. Does nothing if
+     * {@code operations <= 0} or if the queue accepts no item without a waiting consumer.
+     * Must be called before the queue is visible to other threads.
+     */
+    default void prewarm(int operations) {
+        for (int done = 0; done < operations; ) {
+            int n = 0;
+            while (offer(n))
+                ++n;
+            flush();
+            for (int i = 0; i < n; i++)
+                poll(0);
+            if (n == 0)
+                break;
+            for (int i = 0; i < n; i++)
+                put(i);
+            flush();
+            for (int i = 0; i < n; i++)
+                take();
+            done += 2*n;
+        }
+    }
 }
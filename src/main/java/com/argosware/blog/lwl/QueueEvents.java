@@ -0,0 +1,105 @@
+package com.argosware.blog.lwl;
+
+import jdk.jfr.*;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * JFR events emitted by queues created with {@code events = true}.
+ *
+ * <p>Queues only instantiate events on slow paths (contended lock, park, condition wait,
+ * close with blocked threads). Thresholds can be overridden in the recording settings.</p>
+ */
+final class QueueEvents {
+    private QueueEvents() {}
+
+    static final String PRODUCER = "producer", CONSUMER = "consumer";
+
+    /**
+     * Spins until {@code lock}, an {@code int} field of {@code queue}, is CAS-ed from 0 to
+     * 1 and records the spin as a {@link LockSpin}. Queues only call this with events on,
+     * after their inline CAS failed: with events off they keep their own spin loop on a
+     * constant {@link VarHandle}, which C2 compiles to a plain CAS.
+     */
+    static void spinLock(VarHandle lock, Object queue) {
+        var event = new LockSpin();
+        event.begin();
+        long spins = 0;
+        do {
+            Thread.onSpinWait();
+            ++spins;
+        } while ((int)lock.compareAndExchangeAcquire(queue, 0, 1) != 0);
+        event.end();
+        if (event.shouldCommit()) {
+            event.queueClass = queue.getClass();
+            event.spins = spins;
+            event.commit();
+        }
+    }
+
+    /** Parks the current thread with {@code queue} as blocker. */
+    static void park(Object queue, String role, boolean events) {
+        if (!events) {
+            LockSupport.park(queue);
+            return;
+        }
+        var event = new Park();
+        event.begin();
+        LockSupport.park(queue);
+        event.end();
+        if (event.shouldCommit()) {
+            event.queueClass = queue.getClass();
+            event.role = role;
+            event.commit();
+        }
+    }
+
+    @Name("com.argosware.blog.lwl.Park")
+    @Label("Queue Park")
+    @Category({"Queue"})
+    @Description("Producer or consumer parked on a full or empty queue")
+    @Threshold("20 us")
+    static final class Park extends Event {
+        @Label("Queue Class") Class<?> queueClass;
+        @Label("Role") String role;
+    }
+
+    @Name("com.argosware.blog.lwl.LockSpin")
+    @Label("Queue Lock Spin")
+    @Category({"Queue"})
+    @Description("Spin on a contended queue lock")
+    @Threshold("10 us")
+    static final class LockSpin extends Event {
+        @Label("Queue Class") Class<?> queueClass;
+        @Label("Spins") long spins;
+    }
+
+    @Name("com.argosware.blog.lwl.ConditionWait")
+    @Label("Queue Condition Wait")
+    @Category({"Queue"})
+    @Description("Wait on a java.util.concurrent.locks.Condition of a queue")
+    @Threshold("20 us")
+    static final class ConditionWait extends Event {
+        @Label("Queue Class") Class<?> queueClass;
+        @Label("Condition") String condition;
+    }
+
+    static void close(Class<?> queueClass, int wokenThreads) {
+        var event = new Close();
+        if (event.shouldCommit()) {
+            event.queueClass = queueClass;
+            event.wokenThreads = wokenThreads;
+            event.commit();
+        }
+    }
+
+    @Name("com.argosware.blog.lwl.Close")
+    @Label("Queue Close")
+    @Category({"Queue"})
+    @Description("close() woke threads blocked on the queue")
+    static final class Close extends Event {
+        @Label("Queue Class") Class<?> queueClass;
+        @Label("Woken Threads") int wokenThreads;
+    }
+}
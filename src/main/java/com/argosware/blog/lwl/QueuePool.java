@@ -0,0 +1,99 @@
+package com.argosware.blog.lwl;
+
+import com.argosware.blog.lwl.LockingWithoutLock.Implementation;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Thread-safe pool of idle queues keyed by {@link Implementation} and capacity.
+ *
+ * <p>Once a shelf for a given key exists, {@link #acquire(Implementation, int)} and
+ * {@link #release(Implementation, int, Queue)} do not allocate. Released queues are
+ * closed and {@link Queue#reset()}, thus callers must not use them after release. At
+ * most {@code maxIdle} queues are kept per key, extra released queues are dropped.</p>
+ */
+public class QueuePool {
+    private static final VarHandle SHELVES = MethodHandles.arrayElementVarHandle(Shelf[][].class);
+    private final int maxIdle;
+    private final Shelf[][] shelves = new Shelf[Implementation.values().length][];
+
+    public QueuePool(int maxIdle) {
+        this.maxIdle = maxIdle;
+        Arrays.fill(shelves, new Shelf[0]);
+    }
+
+    public Queue acquire(Implementation implementation, int capacity) {
+        Queue queue = shelf(implementation, capacity).pop();
+        return queue == null ? implementation.create(capacity) : queue;
+    }
+
+    public void release(Implementation implementation, int capacity, Queue queue) {
+        queue.close();
+        queue.reset();
+        shelf(implementation, capacity).push(queue);
+    }
+
+    private Shelf shelf(Implementation implementation, int capacity) {
+        int ordinal = implementation.ordinal();
+        for (Shelf shelf : (Shelf[]) SHELVES.getAcquire(shelves, ordinal)) {
+            if (shelf.capacity == capacity)
+                return shelf;
+        }
+        synchronized (this) {
+            Shelf[] current = shelves[ordinal];
+            for (Shelf shelf : current) {
+                if (shelf.capacity == capacity)
+                    return shelf;
+            }
+            Shelf[] grown = Arrays.copyOf(current, current.length+1);
+            Shelf shelf = grown[current.length] = new Shelf(capacity, maxIdle);
+            SHELVES.setRelease(shelves, ordinal, grown);
+            return shelf;
+        }
+    }
+
+    private static final class Shelf {
+        private static final VarHandle LOCK;
+        static {
+            try {
+                LOCK = MethodHandles.lookup().findVarHandle(Shelf.class, "plainLock", int.class);
+            } catch (NoSuchFieldException | IllegalAccessException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        @SuppressWarnings("unused") private int plainLock;
+        private final int capacity;
+        private final Queue[] idle;
+        private int size;
+
+        private Shelf(int capacity, int maxIdle) {
+            this.capacity = capacity;
+            this.idle = new Queue[maxIdle];
+        }
+
+        private @Nullable Queue pop() {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+            try {
+                if (size == 0)
+                    return null;
+                Queue queue = idle[--size];
+                idle[size] = null;
+                return queue;
+            } finally { LOCK.setRelease(this, 0); }
+        }
+
+        private void push(Queue queue) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+            try {
+                if (size < idle.length)
+                    idle[size++] = queue;
+            } finally { LOCK.setRelease(this, 0); }
+        }
+    }
+}
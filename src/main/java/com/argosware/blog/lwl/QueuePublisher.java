@@ -0,0 +1,155 @@
+package com.argosware.blog.lwl;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.Thread.currentThread;
+
+/**
+ * Single-subscriber {@link Flow.Publisher} that consumes a {@link Queue} from a pump task
+ * running on an {@link Executor}.
+ *
+ * <p>Demand is counted in ints, not in {@link IntBatch}es: each {@code onNext()} delivers
+ * at most the outstanding demand, thus there are never more {@code onNext()} calls than
+ * requested. The same {@link IntBatch} instance is delivered on every {@code onNext()} and
+ * is only valid until {@code onNext()} returns. Once subscribed, delivering items does not
+ * allocate: the pump runs as a single long-lived task that drains into that batch.</p>
+ *
+ * <p>{@link Flow.Subscription#cancel()} cannot interrupt a pump blocked in
+ * {@link Queue#take()}, it takes effect once the next item arrives or the queue is
+ * closed.</p>
+ */
+public class QueuePublisher implements Flow.Publisher<QueuePublisher.IntBatch> {
+    private static final VarHandle SUBSCRIBED;
+    static {
+        try {
+            SUBSCRIBED = MethodHandles.lookup().findVarHandle(QueuePublisher.class, "plainSubscribed", int.class);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public static final class IntBatch {
+        private final int[] data;
+        private int size;
+
+        private IntBatch(int capacity) { data = new int[capacity]; }
+
+        public int size() { return size; }
+
+        public int get(int i) {
+            if (i >= size)
+                throw new IndexOutOfBoundsException(i);
+            return data[i];
+        }
+    }
+
+    private final Queue queue;
+    private final Executor executor;
+    private final int maxBatch;
+    @SuppressWarnings("unused") private int plainSubscribed;
+
+    public QueuePublisher(Queue queue, Executor executor, int maxBatch) {
+        if (maxBatch < 1)
+            throw new IllegalArgumentException("maxBatch < 1");
+        this.queue = queue;
+        this.executor = executor;
+        this.maxBatch = maxBatch;
+    }
+
+    @Override public void subscribe(Flow.Subscriber<? super IntBatch> subscriber) {
+        if ((int)SUBSCRIBED.compareAndExchange(this, 0, 1) != 0) {
+            subscriber.onSubscribe(NoopSubscription.INSTANCE);
+            subscriber.onError(new IllegalStateException("QueuePublisher allows a single subscriber"));
+        } else {
+            executor.execute(new Pump(subscriber));
+        }
+    }
+
+    private static final class NoopSubscription implements Flow.Subscription {
+        private static final NoopSubscription INSTANCE = new NoopSubscription();
+        @Override public void request(long n) {}
+        @Override public void cancel() {}
+    }
+
+    private final class Pump implements Runnable, Flow.Subscription {
+        private static final VarHandle DEMAND;
+        static {
+            try {
+                DEMAND = MethodHandles.lookup().findVarHandle(Pump.class, "plainDemand", long.class);
+            } catch (NoSuchFieldException | IllegalAccessException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final Flow.Subscriber<? super IntBatch> subscriber;
+        private final IntBatch batch = new IntBatch(maxBatch);
+        private volatile Thread pumpThread;
+        private volatile boolean cancelled;
+        private volatile long badRequest;
+        @SuppressWarnings("unused") private long plainDemand;
+
+        private Pump(Flow.Subscriber<? super IntBatch> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override public void request(long n) {
+            if (n <= 0) {
+                badRequest = n;
+                cancelled = true;
+                LockSupport.unpark(pumpThread);
+                return;
+            }
+            long ex = (long)DEMAND.getAcquire(this), next;
+            do {
+                next = ex+n < 0 ? Long.MAX_VALUE : ex+n;
+            } while (ex != (ex = (long)DEMAND.compareAndExchangeRelease(this, ex, next)));
+            if (ex == 0)
+                LockSupport.unpark(pumpThread);
+        }
+
+        @Override public void cancel() {
+            cancelled = true;
+            LockSupport.unpark(pumpThread);
+        }
+
+        @Override public void run() {
+            pumpThread = currentThread();
+            subscriber.onSubscribe(this);
+            int[] data = batch.data;
+            try {
+                while (true) {
+                    long demand;
+                    while ((demand = (long)DEMAND.getAcquire(this)) == 0 && !cancelled)
+                        LockSupport.park(this);
+                    if (cancelled)
+                        break;
+                    int max = (int)Math.min(demand, data.length);
+                    int n = queue.drain(data, 0, max);
+                    if (n == 0) {
+                        data[0] = queue.take();
+                        n = max > 1 ? 1+queue.drain(data, 1, max-1) : 1;
+                    }
+                    if (demand != Long.MAX_VALUE)
+                        DEMAND.getAndAddRelease(this, (long)-n);
+                    batch.size = n;
+                    subscriber.onNext(batch);
+                }
+                if (badRequest != 0) {
+                    subscriber.onError(new IllegalArgumentException("request("+badRequest+"): n <= 0"));
+                }
+            } catch (Queue.ClosedException e) {
+                if (!cancelled)
+                    subscriber.onComplete();
+            } catch (Throwable t) {
+                if (!cancelled)
+                    subscriber.onError(t);
+            } finally {
+                pumpThread = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.argosware.blog.lwl;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate of short-lived queue sessions: obtain a queue, run {@code transfers}
+ * {@link Queue#put(int)}/{@link Queue#take()} pairs on it and close it. Queues are either
+ * created and dropped or acquired from and released to a shared {@link QueuePool}.
+ * Run with {@code -t N} to add contention on the pool.
+ */
+@State(Scope.Benchmark)
+@Threads(1)
+@Fork(value = 3)
+@Measurement(iterations = 10, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Recycling {
+    /** All but {@code RENDEZVOUS}: a put() with no other thread to take() never returns */
+    @Param({"LOCK", "SPIN", "SPSC", "PADDED_SPIN", "PADDED_SPSC", "MPMC"})
+    public LockingWithoutLock.Implementation implementation;
+    @Param({"16", "256"}) public int capacity;
+    @Param({"1", "16"}) public int transfers;
+
+    private final QueuePool pool = new QueuePool(64);
+
+    private int session(Queue queue) {
+        int sum = 0;
+        for (int i = 0; i < transfers; i++) {
+            queue.put(i);
+            sum += queue.take();
+        }
+        return sum;
+    }
+
+    @Benchmark public int create() {
+        Queue queue = implementation.create(capacity);
+        int sum = session(queue);
+        queue.close();
+        return sum;
+    }
+
+    @Benchmark public int pooled() {
+        Queue queue = pool.acquire(implementation, capacity);
+        int sum = session(queue);
+        pool.release(implementation, capacity, queue);
+        return sum;
+    }
+}
@@ -0,0 +1,174 @@
+package com.argosware.blog.lwl;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.Thread.currentThread;
+
+/**
+ * Zero-capacity queue for one producer and one consumer: values move through a single
+ * exchange slot directly from a producer to a consumer.
+ *
+ * <p>{@link #put(int)} returns once a consumer took the value, {@link #offer(int)} only
+ * succeeds if a consumer is blocked in {@link #take()} and {@link #poll(int)} only succeeds
+ * if a producer is blocked in {@link #put(int)}. There is no lock, ring or size: the slot
+ * state is changed with a CAS and the waiting side spins briefly before parking.</p>
+ */
+class RendezvousQueue implements Queue {
+    private static final VarHandle STATE, PRODUCER, CONSUMER;
+    /** Slot states. {@code CLOSED} is a bit OR-ed into the state at close. */
+    private static final int EMPTY = 0, ITEM = 1, TAKER = 2, CLOSED = 4;
+    /** Spins before parking, no point spinning if the other side cannot run. */
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 10 : 0;
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            STATE = lookup.findVarHandle(RendezvousQueue.class, "plainState", int.class);
+            PRODUCER = lookup.findVarHandle(RendezvousQueue.class, "plainProducer", Thread.class);
+            CONSUMER = lookup.findVarHandle(RendezvousQueue.class, "plainConsumer", Thread.class);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @SuppressWarnings("unused") private int plainState;
+    /** Threads parked (or about to park) waiting for a state change, else null */
+    @SuppressWarnings("unused") private Thread plainProducer, plainConsumer;
+    private final boolean events;
+    private int item;
+
+    public RendezvousQueue() { this(false); }
+
+    public RendezvousQueue(boolean events) { this.events = events; }
+
+    /**
+     * Spins and then parks until the state is not {@code state}, which only the other
+     * side or {@link #close()} can change.
+     *
+     * @return the new state
+     */
+    private int await(int state, VarHandle waiter, String role) {
+        int current;
+        for (int i = 0; i < SPINS; i++) {
+            if ((current = (int)STATE.getAcquire(this)) != state)
+                return current;
+            Thread.onSpinWait();
+        }
+        // volatile write then volatile read pairs with unparkWaiter()
+        waiter.setVolatile(this, currentThread());
+        while ((current = (int)STATE.getVolatile(this)) == state)
+            QueueEvents.park(this, role, events);
+        waiter.setRelease(this, null);
+        return current;
+    }
+
+    /** Called after a volatile state change that {@code waiter} may be waiting for. */
+    private Thread unparkWaiter(VarHandle waiter) {
+        Thread thread = (Thread)waiter.getVolatile(this);
+        LockSupport.unpark(thread);
+        return thread;
+    }
+
+    @Override public void close() {
+        STATE.getAndBitwiseOr(this, CLOSED);
+        Thread producer = unparkWaiter(PRODUCER), consumer = unparkWaiter(CONSUMER);
+        if (events && (consumer != null || producer != null))
+            QueueEvents.close(getClass(), (consumer == null ? 0 : 1) + (producer == null ? 0 : 1));
+    }
+
+    @Override public void reset() {
+        if (((int)STATE.getAcquire(this) & CLOSED) == 0)
+            throw new IllegalStateException("reset() on open queue");
+        PRODUCER.setRelease(this, null);
+        CONSUMER.setRelease(this, null);
+        item = 0;
+        STATE.setVolatile(this, EMPTY);
+    }
+
+    @Override public boolean offer(int value) throws ClosedException {
+        int state = (int)STATE.getAcquire(this);
+        if ((state & CLOSED) != 0)
+            throw ClosedException.INSTANCE;
+        if (state != TAKER)
+            return false;
+        item = value;
+        if ((int)STATE.compareAndExchange(this, TAKER, ITEM) != TAKER)
+            throw ClosedException.INSTANCE; // only close() races with the producer
+        unparkWaiter(CONSUMER);
+        return true;
+    }
+
+    @Override public void put(int value) throws ClosedException {
+        int state = (int)STATE.getAcquire(this);
+        while (true) {
+            if ((state & CLOSED) != 0) {
+                throw ClosedException.INSTANCE;
+            } else if (state == ITEM) { // value from a previous offer() not yet taken
+                state = await(ITEM, PRODUCER, QueueEvents.PRODUCER);
+            } else {
+                item = value;
+                int witness = (int)STATE.compareAndExchange(this, state, ITEM);
+                if (witness == state)
+                    break;
+                state = witness;
+            }
+        }
+        unparkWaiter(CONSUMER);
+        if (await(ITEM, PRODUCER, QueueEvents.PRODUCER) == (ITEM|CLOSED))
+            throw ClosedException.INSTANCE; // closed before a consumer took the value
+    }
+
+    /** Takes the value if a producer left one in the slot. */
+    private boolean tryTake() {
+        if ((int)STATE.compareAndExchange(this, ITEM, EMPTY) != ITEM)
+            return false;
+        unparkWaiter(PRODUCER);
+        return true;
+    }
+
+    @Override public int poll(int fallback) throws ClosedException {
+        int state = (int)STATE.getAcquire(this);
+        if ((state & CLOSED) != 0)
+            throw ClosedException.INSTANCE;
+        if (state == ITEM) {
+            int item = this.item;
+            if (tryTake())
+                return item;
+            throw ClosedException.INSTANCE; // only close() races with the consumer
+        }
+        return fallback;
+    }
+
+    @Override public int drain(int[] dst, int offset, int max) throws ClosedException {
+        int state = (int)STATE.getAcquire(this);
+        if ((state & CLOSED) != 0)
+            throw ClosedException.INSTANCE;
+        if (state != ITEM || max < 1)
+            return 0;
+        int item = this.item;
+        if (!tryTake())
+            throw ClosedException.INSTANCE;
+        dst[offset] = item;
+        return 1;
+    }
+
+    @Override public int take() throws ClosedException {
+        int state = (int)STATE.getAcquire(this);
+        while (true) {
+            if ((state & CLOSED) != 0) {
+                throw ClosedException.INSTANCE;
+            } else if (state == ITEM) {
+                int item = this.item;
+                if (tryTake())
+                    return item;
+                state = (int)STATE.getAcquire(this);
+            } else if (state == TAKER) {
+                state = await(TAKER, CONSUMER, QueueEvents.CONSUMER);
+            } else if ((state = (int)STATE.compareAndExchange(this, EMPTY, TAKER)) == EMPTY) {
+                state = await(TAKER, CONSUMER, QueueEvents.CONSUMER);
+            }
+        }
+    }
+}
@@ -19,18 +19,26 @@ class SPSCQueue implements Queue {
 
     @SuppressWarnings("unused") private int plainLock;
     private final int[] data;
+    private final boolean events;
     private Thread consumer, producer;
     private int readIdx, size;
     private boolean closed;
 
-    public SPSCQueue(int capacity) {
+    public SPSCQueue(int capacity) { this(capacity, false); }
+
+    public SPSCQueue(int capacity, boolean events) {
         this.data = new int[capacity];
+        this.events = events;
     }
 
     @Override public void close() {
         Thread consumer = null, producer = null;
-        while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-            Thread.onSpinWait();
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
         try {
             closed = true;
             consumer = this.consumer;
@@ -41,13 +49,35 @@ class SPSCQueue implements Queue {
             LOCK.setRelease(this, 0);
             LockSupport.unpark(consumer);
             LockSupport.unpark(producer);
+            if (events && (consumer != null || producer != null))
+                QueueEvents.close(getClass(), (consumer == null ? 0 : 1) + (producer == null ? 0 : 1));
+        }
+    }
+
+    @Override public void reset() {
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
         }
+        try {
+            if (!closed)
+                throw new IllegalStateException("reset() on open queue");
+            readIdx = size = 0;
+            consumer = producer = null;
+            closed = false;
+        } finally { LOCK.setRelease(this, 0); }
     }
 
     @Override public boolean offer(int value) throws ClosedException {
         Thread unpark = null;
-        while ((int) LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-            Thread.onSpinWait();
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
         try {
             if (closed) {
                 throw ClosedException.INSTANCE;
@@ -69,8 +99,12 @@ class SPSCQueue implements Queue {
     @Override public void put(int value) throws ClosedException {
         while (true) {
             Thread unpark = null;
-            while ((int) LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-                Thread.onSpinWait();
+            if (!events) {
+                while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                    Thread.onSpinWait();
+            } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+                QueueEvents.spinLock(LOCK, this);
+            }
             boolean locked = true;
             try {
                 if (closed) {
@@ -80,7 +114,7 @@ class SPSCQueue implements Queue {
                         producer = currentThread();
                         LOCK.setRelease(this, 0);
                         locked = false;
-                        LockSupport.park();
+                        QueueEvents.park(this, QueueEvents.PRODUCER, events);
                     }
                 } else {
                     data[(readIdx+size)%data.length] = value;
@@ -99,8 +133,12 @@ class SPSCQueue implements Queue {
 
     @Override public int poll(int fallback) throws ClosedException {
         Thread unpark = null;
-        while ((int) LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-            Thread.onSpinWait();
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
         try {
             if (closed) {
                 throw ClosedException.INSTANCE;
@@ -120,11 +158,44 @@ class SPSCQueue implements Queue {
         }
     }
 
+    @Override public int drain(int[] dst, int offset, int max) throws ClosedException {
+        Thread unpark = null;
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            if (closed)
+                throw ClosedException.INSTANCE;
+            int n = Math.min(size, max), readIdx = this.readIdx;
+            for (int i = 0; i < n; i++) {
+                dst[offset+i] = data[readIdx];
+                readIdx = (readIdx+1)%data.length;
+            }
+            this.readIdx = readIdx;
+            size -= n;
+            if (n > 0) {
+                unpark = producer;
+                producer = null;
+            }
+            return n;
+        } finally {
+            LOCK.setRelease(this, 0);
+            LockSupport.unpark(unpark);
+        }
+    }
+
     @Override public int take() throws ClosedException {
         while (true) {
             Thread unpark = null;
-            while ((int) LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-                Thread.onSpinWait();
+            if (!events) {
+                while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                    Thread.onSpinWait();
+            } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+                QueueEvents.spinLock(LOCK, this);
+            }
             boolean locked = true;
             try {
                 if (closed) {
@@ -134,7 +205,7 @@ class SPSCQueue implements Queue {
                         consumer = currentThread();
                         LOCK.setRelease(this, 0);
                         locked = false;
-                        LockSupport.park();
+                        QueueEvents.park(this, QueueEvents.CONSUMER, events);
                     }
                 } else {
                     int readIdx = this.readIdx, item = data[readIdx];
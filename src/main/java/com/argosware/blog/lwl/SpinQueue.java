@@ -16,24 +16,51 @@ class SpinQueue implements Queue {
 
     @SuppressWarnings("unused") private int plainLock;
     private final int[] data;
+    private final boolean events;
     private int readIdx, size;
     private boolean closed;
 
-    public SpinQueue(int capacity) {
+    public SpinQueue(int capacity) { this(capacity, false); }
+
+    public SpinQueue(int capacity, boolean events) {
         this.data = new int[capacity];
+        this.events = events;
     }
 
     @Override public void close() {
-        while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-            Thread.onSpinWait();
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
         try {
             closed = true;
         } finally { LOCK.setRelease(this, 0); }
     }
 
+    @Override public void reset() {
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            if (!closed)
+                throw new IllegalStateException("reset() on open queue");
+            readIdx = size = 0;
+            closed = false;
+        } finally { LOCK.setRelease(this, 0); }
+    }
+
     @Override public boolean offer(int value) throws ClosedException {
-        while ((int) LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-            Thread.onSpinWait();
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
         try {
             if (size < data.length) {
                 data[(readIdx+size)%data.length] = value;
@@ -49,8 +76,12 @@ class SpinQueue implements Queue {
 
     @Override public void put(int value) throws ClosedException {
         while (true) {
-            while ((int) LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-                Thread.onSpinWait();
+            if (!events) {
+                while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                    Thread.onSpinWait();
+            } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+                QueueEvents.spinLock(LOCK, this);
+            }
             try {
                 if (size < data.length) {
                     data[(readIdx+size)%data.length] = value;
@@ -66,8 +97,12 @@ class SpinQueue implements Queue {
     }
 
     @Override public int poll(int fallback) throws ClosedException {
-        while ((int) LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-            Thread.onSpinWait();
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
         try {
             if (size > 0) {
                 int readIdx = this.readIdx, item = data[readIdx];
@@ -82,10 +117,35 @@ class SpinQueue implements Queue {
         } finally { LOCK.setRelease(this, 0); }
     }
 
+    @Override public int drain(int[] dst, int offset, int max) throws ClosedException {
+        if (!events) {
+            while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                Thread.onSpinWait();
+        } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+            QueueEvents.spinLock(LOCK, this);
+        }
+        try {
+            if (size == 0 && closed)
+                throw ClosedException.INSTANCE;
+            int n = Math.min(size, max), readIdx = this.readIdx;
+            for (int i = 0; i < n; i++) {
+                dst[offset+i] = data[readIdx];
+                readIdx = (readIdx+1)%data.length;
+            }
+            this.readIdx = readIdx;
+            size -= n;
+            return n;
+        } finally { LOCK.setRelease(this, 0); }
+    }
+
     @Override public int take() throws ClosedException {
         while (true) {
-            while ((int) LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
-                Thread.onSpinWait();
+            if (!events) {
+                while ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0)
+                    Thread.onSpinWait();
+            } else if ((int)LOCK.compareAndExchangeAcquire(this, 0, 1) != 0) {
+                QueueEvents.spinLock(LOCK, this);
+            }
             try {
                 if (size > 0) {
                     int readIdx = this.readIdx, item = data[readIdx];
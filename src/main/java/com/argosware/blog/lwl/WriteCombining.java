@@ -0,0 +1,58 @@
+package com.argosware.blog.lwl;
+
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.*;
+
+/**
+ * Producer throughput of {@link BatchingSPSCQueue} publishing every {@code batch} items
+ * against a consumer thread blocked in {@link Queue#take()}. {@code batch = 0} is the
+ * plain {@link PaddedSPSCQueue}, which publishes on every {@link Queue#put(int)}.
+ *
+ * <p>A positive {@code maxDelayNanos} adds a {@link System#nanoTime()} call to every
+ * unpublished {@link Queue#put(int)} and publishes a partial batch once its oldest item is
+ * that old. It is ignored when {@code batch = 0}.</p>
+ */
+@State(Scope.Thread)
+@Threads(1)
+@Fork(value = 3)
+@Measurement(iterations = 10, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WriteCombining {
+    @Param({"0", "1", "4", "16", "64"}) public int batch;
+    @Param({"256"}) public int capacity;
+    /** {@code <= 0} disables the time bound */
+    @Param({"0", "1000"}) public long maxDelayNanos;
+
+    private final ExecutorService executor = BenchmarkSupport.newDaemonPool("write-combining-consumer-");
+    private @MonotonicNonNull Queue queue;
+    private @MonotonicNonNull Future<?> consumerFuture;
+    private int counter;
+
+    @Setup(Level.Iteration) public void setup(Blackhole bh) {
+        queue = batch == 0 ? new PaddedSPSCQueue(capacity)
+                           : new BatchingSPSCQueue(capacity, batch, maxDelayNanos);
+        consumerFuture = executor.submit(() -> {
+            try {
+                while (true) bh.consume(queue.take());
+            } catch (Queue.ClosedException ignored) { }
+        });
+    }
+
+    @TearDown(Level.Iteration) public void tearDown() throws Exception {
+        queue.close();
+        consumerFuture.get();
+    }
+
+    @TearDown(Level.Trial) public void trialTearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark public void put() {
+        queue.put(counter++);
+    }
+}